@@ -130,6 +130,7 @@ public abstract class AtomicService extends AbstractService {
 						CSConfiguration.MultipeThreads(),
 						CSConfiguration.MaxNoOfThreads(),
 						CSConfiguration.MaxQueueSize());
+				this.configuration.virtualThreads = CSConfiguration.VirtualThreads();
 			} else
 				this.configuration = new Configuration(false, 1, 0);
 		} catch (Exception e) {
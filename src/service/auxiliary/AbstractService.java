@@ -3,17 +3,19 @@ package service.auxiliary;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import service.provider.MessageReceiver;
 import service.provider.ServiceProvider;
 import service.provider.ServiceProviderFactory;
 import service.utility.Time;
+import service.utility.VirtualThreads;
 
 /**
  * 
@@ -27,11 +29,21 @@ public abstract class AbstractService implements MessageReceiver {
     private ServiceProvider serviceProvider;
 
     private AtomicInteger messageCount = new AtomicInteger(0);
-    private Map<Integer, Object> results = new ConcurrentHashMap<Integer, Object>();
     private ServiceDescription serviceDescription;
-    private Object NullObject = new Object();
     private ExecutorService executors;
 
+    /**
+     * Runs tasks on the executors, counted as pending work by the clock
+     */
+    private final Executor executor = new Executor() {
+		@Override
+		public void execute(Runnable task) {
+			executors.execute(Time.track(task));
+		}
+    };
+
+    private PendingRequests pendingRequests = new PendingRequests();
+
     public static final boolean DEBUG = false;
 
     /**
@@ -84,44 +96,69 @@ public abstract class AbstractService implements MessageReceiver {
      * @return the service result
      */
     public Object sendRequest(String service, String destination, boolean reply, long responseTime, String opName, Object... params) {
+		if (!reply) {
+			try {
+				send(messageCount.incrementAndGet(), service, destination, opName, params);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			return null;
+		}
+		CompletableFuture<Object> result = sendRequestAsync(service, destination, responseTime, opName, params);
 		try {
-			int messageID = messageCount.incrementAndGet();
-			Request request = new Request(messageID, this.serviceEndpoint,service, opName, params);
-			XMLBuilder build = new XMLBuilder();
-			String requestMessage = build.toXML(request);
-
-			serviceProvider.sendMessage(requestMessage, destination);
-
-			if (DEBUG)
-				System.out.println("The request message is: \n"+ requestMessage);
+			return Time.await(result);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.complete(null);
+			return null;
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			return null;
+		}
+    }
 
-			if (reply) {
-				synchronized (this) {
-					if (responseTime == -1) {
-						while (!results.containsKey(messageID)) {
-							this.wait();
-						}
-					} else {
-						long startTime = System.currentTimeMillis();
-						while (!results.containsKey(messageID)) {
-							this.wait(responseTime * Time.scale);
-							long endTime = System.currentTimeMillis();
-							if ((endTime - startTime) / Time.scale >= responseTime) {
-								results.put(messageID, new TimeOutError());
-							}
-						}
-					}
-				}
+    /**
+     * Send request to invoke a service without waiting for the reply
+     * @param service the service name
+     * @param destination the target endpoint
+     * @param opName the invoked operation name
+     * @param params parameters for the operation
+     * @return the future service result
+     */
+    public CompletableFuture<Object> sendRequestAsync(String service, String destination, String opName, Object... params) {
+    	return sendRequestAsync(service, destination, -1, opName, params);
+    }
 
-				Object result = results.get(messageID);
-				results.remove(messageID);
-				return result != NullObject ? result : null;
-			}
-			return null;
+    /**
+     * Send request to invoke a service without waiting for the reply.
+     * The returned future completes on the thread receiving the reply, so dependent
+     * actions that block or take long should run on another executor.
+     * @param service the service name
+     * @param destination the target endpoint
+     * @param responseTime the max time for waiting a reply, -1 to wait forever
+     * @param opName the invoked operation name
+     * @param params parameters for the operation
+     * @return the future service result, a TimeOutError if no reply arrived in time
+     */
+    public CompletableFuture<Object> sendRequestAsync(String service, String destination, long responseTime, String opName, Object... params) {
+		int messageID = messageCount.incrementAndGet();
+		CompletableFuture<Object> future = pendingRequests.add(messageID, responseTime);
+		try {
+			send(messageID, service, destination, opName, params);
 		} catch (Exception e) {
 			e.printStackTrace();
-			return null;
+			future.complete(null);
 		}
+		return future;
+    }
+
+    private void send(int messageID, String service, String destination, String opName, Object... params) throws Exception {
+		Request request = new Request(messageID, this.serviceEndpoint, service, opName, params);
+
+		serviceProvider.sendMessage(request, destination);
+
+		if (DEBUG)
+			System.out.println("The request message is: \n"+ request);
     }
 
     /**
@@ -132,9 +169,7 @@ public abstract class AbstractService implements MessageReceiver {
      */
     private void sendResponse(int requestID, Object result, String destination) {
     	Response response = new Response(messageCount.incrementAndGet(), requestID, this.serviceEndpoint, result);
-    	XMLBuilder build = new XMLBuilder();
-    	String responseMessage = build.toXML(response);
-    	serviceProvider.sendMessage(responseMessage, destination);
+    	serviceProvider.sendMessage(response, destination);
     }
 
     /**
@@ -153,10 +188,18 @@ public abstract class AbstractService implements MessageReceiver {
     }
 
     @Override
-    public void onMessage(final String message) {
+    public void onMessage(String message) {
 		try {
-			AbstractMessage msg = (AbstractMessage) (new XMLBuilder()
-					.fromXML(message));
+			onMessage((AbstractMessage) serviceProvider.getMessageCodec().decode(message));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+    }
+
+    @Override
+    public void onMessage(final AbstractMessage message) {
+		try {
+			AbstractMessage msg = message;
 			final int requestID = msg.getId();
 			String messageType = msg.getType();
 			final String destination = msg.getEndpoint();
@@ -165,23 +208,28 @@ public abstract class AbstractService implements MessageReceiver {
 				if (DEBUG)
 					System.out.println("Receiving the request: \n" + message);
 				final Request request = (Request) msg;
-				executors.submit(new Callable<Object>() {
+				executor.execute(new Runnable() {
 
 					@Override
-					public Object call() throws Exception {
+					public void run() {
 						try {
 
-							Object result = invokeOperation(request.getOpName(), request.getParams());
-
-							if (result instanceof OperationAborted)
-								return null;
-							sendResponse(requestID, result, destination);
+							invokeOperationAsync(request.getOpName(), request.getParams()).whenComplete(new BiConsumer<Object, Throwable>() {
+								@Override
+								public void accept(Object result, Throwable failure) {
+									if (failure != null) {
+										failure.printStackTrace();
+										return;
+									}
+									if (result instanceof OperationAborted)
+										return;
+									sendResponse(requestID, result, destination);
+								}
+							});
 
 						} catch (Exception e) {
 							e.printStackTrace();
 						}
-
-						return null;
 					}
 				});
 				break;
@@ -189,16 +237,9 @@ public abstract class AbstractService implements MessageReceiver {
 			case "response": {
 				if (DEBUG)
 					System.out.println("Receiving the response: \n" + message);
-				Response response = (Response) msg;
-				if (response.getReturnType() != null) {
-					Class<?> type = (Class<?>) response.getReturnType();
-					results.put(response.getRequestID(),type.cast(response.getReturnValue()));
-				} else {
-					results.put(response.getRequestID(), NullObject);
-				}
-				synchronized (this) {
-					this.notifyAll();
-				}
+				// Only the sender of the request is woken up. Replies to requests
+				// sent without waiting or already timed out are dropped.
+				pendingRequests.complete((Response) msg);
 				break;
 			}
 			default:
@@ -211,6 +252,25 @@ public abstract class AbstractService implements MessageReceiver {
 
     abstract public Object invokeOperation(String opName, Param[] args);
 
+    /**
+     * Invoke an operation for an incoming request. The response is sent when the
+     * returned future completes, so an operation may finish without holding a thread.
+     * @param opName the operation name
+     * @param args the operation parameters
+     * @return the future operation result
+     */
+    protected CompletableFuture<Object> invokeOperationAsync(String opName, Param[] args) {
+    	return CompletableFuture.completedFuture(invokeOperation(opName, args));
+    }
+
+    /**
+     * Return the executor running the operations of this service
+     * @return the executor
+     */
+    public Executor getExecutor() {
+    	return executor;
+    }
+
     /**
      * Register to the service registry
      */
@@ -281,7 +341,10 @@ public abstract class AbstractService implements MessageReceiver {
     abstract protected void readConfiguration();
 
     protected void applyConfiguration() {
-		if (configuration.MultipleThreads == false) {
+		if (configuration.virtualThreads && VirtualThreads.isAvailable()) {
+			// Blocking operations no longer hold a pooled thread
+			executors = VirtualThreads.newExecutor();
+		} else if (configuration.MultipleThreads == false) {
 			executors = Executors.newSingleThreadExecutor();
 		} else {
 			executors = Executors.newFixedThreadPool(configuration.maxNoOfThreads);
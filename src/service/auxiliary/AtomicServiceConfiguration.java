@@ -1,5 +1,13 @@
 package service.auxiliary;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+
 /**
  * 
  * The configuration of atomic service with properties
@@ -8,4 +16,9 @@ public @interface AtomicServiceConfiguration {
     public boolean MultipeThreads() default false;
     public int MaxNoOfThreads() default -1;
     public int MaxQueueSize() default 0;
+
+    /**
+     * Handle each request on its own virtual thread instead of a thread pool, when the JVM has them
+     */
+    public boolean VirtualThreads() default false;
 }
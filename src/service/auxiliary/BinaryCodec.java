@@ -0,0 +1,391 @@
+package service.auxiliary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary message format.
+ *
+ * Requests, responses, parameters, service descriptions, operations, boxed primitives,
+ * strings, arrays, lists and maps are written field by field without class names.
+ * Parameter and return types are not written either, they are the classes of the values
+ * as when the message was created. Any other value is embedded as XML.
+ *
+ * Each byte of the encoded message is carried as one character, so text based service
+ * providers transport it unchanged.
+ */
+public class BinaryCodec implements MessageCodec {
+
+	/**
+	 * First character of a binary message, XML messages start with '&lt;'
+	 */
+	private static final char MAGIC = '\u00B1';
+
+	private static final byte REQUEST = 1;
+	private static final byte RESPONSE = 2;
+
+	private static final byte NULL = 0;
+	private static final byte INTEGER = 1;
+	private static final byte LONG = 2;
+	private static final byte DOUBLE = 3;
+	private static final byte FLOAT = 4;
+	private static final byte SHORT = 5;
+	private static final byte BYTE = 6;
+	private static final byte CHARACTER = 7;
+	private static final byte BOOLEAN = 8;
+	private static final byte STRING = 9;
+	private static final byte OBJECT_ARRAY = 10;
+	private static final byte INT_ARRAY = 11;
+	private static final byte DOUBLE_ARRAY = 12;
+	private static final byte ARRAY_LIST = 13;
+	private static final byte LINKED_LIST = 14;
+	private static final byte HASH_MAP = 15;
+	private static final byte SERVICE_DESCRIPTION = 16;
+	private static final byte OPERATION = 17;
+	private static final byte CLASS = 18;
+	private static final byte XML = 19;
+
+	private static final Map<String, Class<?>> primitiveTypes = new HashMap<String, Class<?>>();
+
+	static {
+		for (Class<?> type : new Class<?>[] { int.class, long.class, double.class, float.class, short.class,
+				byte.class, char.class, boolean.class, void.class })
+			primitiveTypes.put(type.getName(), type);
+	}
+
+	/**
+	 * Check whether a message is in the binary format
+	 * @param message the encoded message
+	 * @return true if binary
+	 */
+	public static boolean isBinary(String message) {
+		return !message.isEmpty() && message.charAt(0) == MAGIC;
+	}
+
+	@Override
+	public String encode(Object message) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(MAGIC);
+			if (message instanceof Request) {
+				Request request = (Request) message;
+				out.writeByte(REQUEST);
+				writeMessage(out, request);
+				writeString(out, request.getServiceName());
+				writeString(out, request.getOpName());
+				Param[] params = request.getParams();
+				out.writeInt(params != null ? params.length : -1);
+				if (params != null) {
+					for (Param param : params)
+						writeValue(out, param.getValue());
+				}
+			} else if (message instanceof Response) {
+				Response response = (Response) message;
+				out.writeByte(RESPONSE);
+				writeMessage(out, response);
+				out.writeInt(response.getRequestID());
+				writeValue(out, response.getReturnValue());
+			} else {
+				throw new IllegalArgumentException("Not a request or response: " + message);
+			}
+			out.flush();
+			return new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public Object decode(String message) {
+		if (!isBinary(message))
+			return new XMLCodec().decode(message);
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(message.getBytes(StandardCharsets.ISO_8859_1)));
+			in.readByte();
+			byte type = in.readByte();
+			int id = in.readInt();
+			String endpoint = readString(in);
+			switch (type) {
+			case REQUEST: {
+				String serviceName = readString(in);
+				String opName = readString(in);
+				int count = in.readInt();
+				if (count < 0)
+					return new Request(id, endpoint, serviceName, opName);
+				Object[] params = new Object[count];
+				for (int i = 0; i < count; i++)
+					params[i] = readValue(in);
+				return new Request(id, endpoint, serviceName, opName, params);
+			}
+			case RESPONSE: {
+				int requestID = in.readInt();
+				return new Response(id, requestID, endpoint, readValue(in));
+			}
+			default:
+				throw new IllegalArgumentException("Unknown message type " + type);
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			throw new IllegalArgumentException("Malformed message", e);
+		}
+	}
+
+	/**
+	 * Copy a value by encoding and decoding it, see {@link MessageCopier}
+	 * @param value the value
+	 * @return an equal value sharing no mutable state with the given one
+	 */
+	static Object copy(Object value) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			writeValue(out, value);
+			out.flush();
+			return readValue(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		} catch (IOException | ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void writeMessage(DataOutputStream out, AbstractMessage message) throws IOException {
+		out.writeInt(message.getId());
+		writeString(out, message.getEndpoint());
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Float) {
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Short) {
+			out.writeByte(SHORT);
+			out.writeShort((Short) value);
+		} else if (value instanceof Byte) {
+			out.writeByte(BYTE);
+			out.writeByte((Byte) value);
+		} else if (value instanceof Character) {
+			out.writeByte(CHARACTER);
+			out.writeChar((Character) value);
+		} else if (value instanceof int[]) {
+			int[] array = (int[]) value;
+			out.writeByte(INT_ARRAY);
+			out.writeInt(array.length);
+			for (int element : array)
+				out.writeInt(element);
+		} else if (value instanceof double[]) {
+			double[] array = (double[]) value;
+			out.writeByte(DOUBLE_ARRAY);
+			out.writeInt(array.length);
+			for (double element : array)
+				out.writeDouble(element);
+		} else if (value instanceof Object[]) {
+			Object[] array = (Object[]) value;
+			out.writeByte(OBJECT_ARRAY);
+			writeString(out, array.getClass().getComponentType().getName());
+			out.writeInt(array.length);
+			for (Object element : array)
+				writeValue(out, element);
+		} else if (value.getClass() == ArrayList.class || value.getClass() == LinkedList.class) {
+			List<?> list = (List<?>) value;
+			out.writeByte(value.getClass() == ArrayList.class ? ARRAY_LIST : LINKED_LIST);
+			out.writeInt(list.size());
+			for (Object element : list)
+				writeValue(out, element);
+		} else if (value.getClass() == HashMap.class) {
+			writeMap(out, (HashMap<?, ?>) value);
+		} else if (value.getClass() == ServiceDescription.class) {
+			ServiceDescription description = (ServiceDescription) value;
+			out.writeByte(SERVICE_DESCRIPTION);
+			out.writeInt(description.getRegisterID());
+			writeString(out, description.getServiceEndpoint());
+			writeString(out, description.getServiceType());
+			writeString(out, description.getServiceName());
+			writeMap(out, description.getCustomProperties());
+			List<Operation> operations = description.getOperationList();
+			out.writeInt(operations != null ? operations.size() : -1);
+			if (operations != null) {
+				for (Operation operation : operations)
+					writeValue(out, operation);
+			}
+		} else if (value.getClass() == Operation.class) {
+			Operation operation = (Operation) value;
+			out.writeByte(OPERATION);
+			writeString(out, operation.getOpName());
+			Class<?>[] paramTypes = operation.getParamTypes();
+			out.writeInt(paramTypes != null ? paramTypes.length : -1);
+			if (paramTypes != null) {
+				for (Class<?> type : paramTypes)
+					writeString(out, type.getName());
+			}
+			writeString(out, operation.getReturnType());
+			out.writeDouble(operation.getOpCost());
+		} else if (value instanceof Class) {
+			out.writeByte(CLASS);
+			writeString(out, ((Class<?>) value).getName());
+		} else {
+			out.writeByte(XML);
+			writeString(out, new XMLBuilder().toXML(value));
+		}
+	}
+
+	private static void writeMap(DataOutputStream out, Map<?, ?> map) throws IOException {
+		out.writeByte(HASH_MAP);
+		out.writeInt(map.size());
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			writeValue(out, entry.getKey());
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	private static Object readValue(DataInputStream in) throws IOException, ClassNotFoundException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case NULL:
+			return null;
+		case INTEGER:
+			return in.readInt();
+		case STRING:
+			return readString(in);
+		case BOOLEAN:
+			return in.readBoolean();
+		case DOUBLE:
+			return in.readDouble();
+		case LONG:
+			return in.readLong();
+		case FLOAT:
+			return in.readFloat();
+		case SHORT:
+			return in.readShort();
+		case BYTE:
+			return in.readByte();
+		case CHARACTER:
+			return in.readChar();
+		case INT_ARRAY: {
+			int[] array = new int[in.readInt()];
+			for (int i = 0; i < array.length; i++)
+				array[i] = in.readInt();
+			return array;
+		}
+		case DOUBLE_ARRAY: {
+			double[] array = new double[in.readInt()];
+			for (int i = 0; i < array.length; i++)
+				array[i] = in.readDouble();
+			return array;
+		}
+		case OBJECT_ARRAY: {
+			Class<?> componentType = toClass(readString(in));
+			Object[] array = (Object[]) Array.newInstance(componentType, in.readInt());
+			for (int i = 0; i < array.length; i++)
+				array[i] = readValue(in);
+			return array;
+		}
+		case ARRAY_LIST:
+		case LINKED_LIST: {
+			int size = in.readInt();
+			List<Object> list = tag == ARRAY_LIST ? new ArrayList<Object>(size) : new LinkedList<Object>();
+			for (int i = 0; i < size; i++)
+				list.add(readValue(in));
+			return list;
+		}
+		case HASH_MAP:
+			return readMap(in, new HashMap<String, Object>());
+		case SERVICE_DESCRIPTION: {
+			int registerID = in.readInt();
+			String serviceEndpoint = readString(in);
+			String serviceType = readString(in);
+			String serviceName = readString(in);
+			ServiceDescription description = new ServiceDescription(serviceName, serviceEndpoint);
+			description.setRegisterID(registerID);
+			description.setServiceType(serviceType);
+			in.readByte();
+			readMap(in, description.getCustomProperties());
+			int count = in.readInt();
+			List<Operation> operations = null;
+			if (count >= 0) {
+				operations = new ArrayList<Operation>(count);
+				for (int i = 0; i < count; i++)
+					operations.add((Operation) readValue(in));
+			}
+			description.setOperationList(operations);
+			return description;
+		}
+		case OPERATION: {
+			String opName = readString(in);
+			int count = in.readInt();
+			Class<?>[] paramTypes = null;
+			if (count >= 0) {
+				paramTypes = new Class<?>[count];
+				for (int i = 0; i < count; i++)
+					paramTypes[i] = toClass(readString(in));
+			}
+			Operation operation = new Operation(opName, paramTypes, readString(in));
+			operation.setOpCost(in.readDouble());
+			return operation;
+		}
+		case CLASS:
+			return toClass(readString(in));
+		case XML:
+			return new XMLBuilder().fromXML(readString(in));
+		default:
+			throw new IOException("Unknown value tag " + tag);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K, V> HashMap<K, V> readMap(DataInputStream in, HashMap<K, V> map) throws IOException, ClassNotFoundException {
+		int size = in.readInt();
+		for (int i = 0; i < size; i++)
+			map.put((K) readValue(in), (V) readValue(in));
+		return map;
+	}
+
+	private static Class<?> toClass(String name) throws ClassNotFoundException {
+		Class<?> type = primitiveTypes.get(name);
+		return type != null ? type : Class.forName(name);
+	}
+}
@@ -28,4 +28,31 @@ public @interface CompositeServiceConfiguration{
     public boolean SDCacheShared() default false;
     public int SDCacheTimeout() default 0;
     public int SDCacheSize() default 0;
+
+    /**
+     * The engine that executes the workflow
+     */
+    public WorkflowEngineMode Engine() default WorkflowEngineMode.INTERPRETER;
+
+    /**
+     * Number of invocations after which a TIERED engine compiles the workflow
+     */
+    public int TierUpThreshold() default 100;
+
+    /**
+     * Issue a service call without waiting when its result is only assigned to a variable,
+     * and wait for the result where the variable is first read.
+     */
+    public boolean DataflowCalls() default false;
+
+    /**
+     * Suspend a workflow while it waits for a service call instead of blocking a thread,
+     * so a few threads can run many workflow invocations at once.
+     */
+    public boolean AsyncWorkflows() default false;
+
+    /**
+     * Handle each request on its own virtual thread instead of a thread pool, when the JVM has them
+     */
+    public boolean VirtualThreads() default false;
 }
@@ -44,7 +44,7 @@ public class Configuration {
 		this.maxNoOfThreads = maxNoOfThreads;
 		this.maxQueueSize = maxQueueSize;
 		if (maxNoOfThreads == -1 && MultipleThreads == true) {
-			maxNoOfThreads = Runtime.getRuntime().availableProcessors();
+			this.maxNoOfThreads = Runtime.getRuntime().availableProcessors();
 		}
     }
     
@@ -58,5 +58,10 @@ public class Configuration {
     public boolean SDCacheShared;
     public int SDCacheTimeout;
     public int SDCacheSize;
+    public WorkflowEngineMode engine = WorkflowEngineMode.INTERPRETER;
+    public int tierUpThreshold = 100;
+    public boolean dataflowCalls;
+    public boolean asyncWorkflows;
+    public boolean virtualThreads;
 
 }
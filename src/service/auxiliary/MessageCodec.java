@@ -0,0 +1,24 @@
+package service.auxiliary;
+
+/**
+ * Converts the messages exchanged by services, requests and responses, to and from the
+ * text carried by a {@link service.provider.ServiceProvider}.
+ * Every codec decodes the formats of all built-in codecs, so services sending
+ * different formats can talk to each other.
+ */
+public interface MessageCodec {
+
+	/**
+	 * Convert a message to text
+	 * @param message the message
+	 * @return the encoded message
+	 */
+	public String encode(Object message);
+
+	/**
+	 * Convert text to a message
+	 * @param message the encoded message
+	 * @return the message
+	 */
+	public Object decode(String message);
+}
@@ -0,0 +1,58 @@
+package service.auxiliary;
+
+/**
+ * Copies messages handed from one service to another in the same JVM without encoding.
+ * Immutable values are shared, mutable ones are copied, so neither side sees later
+ * changes made by the other, as if the message had been sent over the wire.
+ */
+public class MessageCopier {
+
+	/**
+	 * Copy a request or response
+	 * @param message the message
+	 * @return a message with the same content
+	 */
+	public static AbstractMessage copy(AbstractMessage message) {
+		if (message instanceof Request) {
+			Request request = (Request) message;
+			Param[] params = request.getParams();
+			if (params == null)
+				return new Request(request.getId(), request.getEndpoint(), request.getServiceName(), request.getOpName());
+			Object[] values = new Object[params.length];
+			for (int i = 0; i < params.length; i++)
+				values[i] = copyValue(params[i].getValue());
+			return new Request(request.getId(), request.getEndpoint(), request.getServiceName(), request.getOpName(), values);
+		} else if (message instanceof Response) {
+			Response response = (Response) message;
+			return new Response(response.getId(), response.getRequestID(), response.getEndpoint(), copyValue(response.getReturnValue()));
+		}
+		throw new IllegalArgumentException("Not a request or response: " + message);
+	}
+
+	/**
+	 * Return an immutable value itself, otherwise a copy
+	 * @param value the value
+	 * @return the value or its copy
+	 */
+	public static Object copyValue(Object value) {
+		if (isImmutable(value))
+			return value;
+		return BinaryCodec.copy(value);
+	}
+
+	private static boolean isImmutable(Object value) {
+		return value == null
+				|| value instanceof String
+				|| value instanceof Integer
+				|| value instanceof Boolean
+				|| value instanceof Double
+				|| value instanceof Long
+				|| value instanceof Float
+				|| value instanceof Short
+				|| value instanceof Byte
+				|| value instanceof Character
+				|| value instanceof Class
+				|| value instanceof Enum
+				|| value instanceof TimeOutError;
+	}
+}
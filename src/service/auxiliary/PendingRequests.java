@@ -0,0 +1,70 @@
+package service.auxiliary;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import service.utility.Time;
+
+/**
+ *
+ * Requests waiting for their responses, correlated by request id.
+ * Each request has its own future, so a response completes only the one waiting for it.
+ * Timeouts are scheduled on the clock, see {@link Time}.
+ */
+public class PendingRequests {
+
+    private Map<Integer, CompletableFuture<Object>> requests = new ConcurrentHashMap<Integer, CompletableFuture<Object>>();
+
+    /**
+     * Register a request before sending it.
+     * Whichever of response, timeout or caller completes the future first wins,
+     * and completing it removes the request.
+     * @param requestID the request id
+     * @param responseTime the max time for waiting a response, -1 to wait forever
+     * @return the future result, a TimeOutError if no response arrived in time
+     */
+    public CompletableFuture<Object> add(final int requestID, long responseTime) {
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+		requests.put(requestID, future);
+		final Future<?> timeout = responseTime == -1 ? null : Time.schedule(new Runnable() {
+			@Override
+			public void run() {
+				future.complete(new TimeOutError());
+			}
+		}, responseTime * Time.scale, TimeUnit.MILLISECONDS);
+		future.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object result, Throwable failure) {
+				requests.remove(requestID);
+				if (timeout != null)
+					timeout.cancel(false);
+			}
+		});
+		return future;
+    }
+
+    /**
+     * Complete a request with its response
+     * @param response the response
+     * @return false if no request is waiting for the response, e.g. it timed out
+     */
+    public boolean complete(Response response) {
+		CompletableFuture<Object> future = requests.get(response.getRequestID());
+		if (future == null)
+			return false;
+		Class<?> type = (Class<?>) response.getReturnType();
+		return future.complete(type != null ? type.cast(response.getReturnValue()) : null);
+    }
+
+    /**
+     * Return the number of requests waiting for a response
+     * @return the number of requests
+     */
+    public int size() {
+    	return requests.size();
+    }
+}
@@ -0,0 +1,22 @@
+package service.auxiliary;
+
+/**
+ * How a composite service executes its workflow
+ */
+public enum WorkflowEngineMode {
+
+    /**
+     * Walk the task graph with the TaskGraphInterpreter
+     */
+    INTERPRETER,
+
+    /**
+     * Compile the task graph once and run the compiled form
+     */
+    COMPILER,
+
+    /**
+     * Interpret a workflow until it has been invoked more than the tier-up threshold, then compile it
+     */
+    TIERED
+}
@@ -1,44 +1,105 @@
 package service.auxiliary;
 
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import javax.xml.stream.XMLInputFactory;
+
 import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.DomDriver;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
+import com.thoughtworks.xstream.io.xml.StaxDriver;
 
 /**
  * Convert between XML and Object
+ *
+ * All builders share one XStream, configured once: XStream is thread-safe once set up.
+ * Messages are parsed with a streaming StAX reader instead of a DOM, and written with
+ * the same pretty printer as the former DOM driver, so the XML is unchanged.
  * @author Yifan Ruan
  * @email  ry222ad@student.lnu.se
  */
 public class XMLBuilder {
-	
-	private XStream xstream = new XStream(new DomDriver());
-	
+
 	/**
-	 * Constructor
+	 * Reads with StAX, writes like the DOM driver
 	 */
-	public XMLBuilder(){
+	private static class MessageDriver extends StaxDriver {
+
+		@Override
+		public HierarchicalStreamWriter createWriter(Writer out) {
+			return new PrettyPrintWriter(out, getNameCoder());
+		}
+
+		@Override
+		protected XMLInputFactory createInputFactory() {
+			XMLInputFactory factory = super.createInputFactory();
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+			return factory;
+		}
+	}
+
+	private static final MessageDriver driver = new MessageDriver();
+
+	private static final XStream xstream = new XStream(driver);
+
+	/**
+	 * Output buffer of each thread, dropped when a message made it too large
+	 */
+	private static final ThreadLocal<StringWriter> buffers = new ThreadLocal<StringWriter>();
+
+	private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+	static {
 		xstream.alias("request", Request.class);
 		xstream.alias("response", Response.class);
 		xstream.alias("ServiceDescription", ServiceDescription.class);
 		xstream.alias("param", Param.class);
 		xstream.alias("operation", Operation.class);
+
+		// Set up the converters of the messages before the first one is sent
+		xstream.fromXML(xstream.toXML(new Request(0, "", "", "", new Object[] { 0, "" })));
+		xstream.fromXML(xstream.toXML(new Response(0, 0, "", new ServiceDescription("", ""))));
+	}
+
+	/**
+	 * Constructor
+	 */
+	public XMLBuilder(){
 	}
-	
+
 	/**
 	 * Convert from object to xml string
-	 * @param obj object 
+	 * @param obj object
 	 * @return the converted xml string
 	 */
 	public String toXML(Object obj){
-		return xstream.toXML(obj);
+		StringWriter buffer = buffers.get();
+		if (buffer == null) {
+			buffer = new StringWriter(1024);
+			buffers.set(buffer);
+		}
+		buffer.getBuffer().setLength(0);
+		HierarchicalStreamWriter writer = driver.createWriter(buffer);
+		try {
+			xstream.marshal(obj, writer);
+		} finally {
+			writer.flush();
+		}
+		String xml = buffer.toString();
+		if (buffer.getBuffer().capacity() > MAX_BUFFER_SIZE)
+			buffers.remove();
+		return xml;
 	}
-	
+
 	/**
 	 * Convert from xml string to object
 	 * @param str xml string
 	 * @return the converted object
 	 */
 	public Object fromXML(String str){
-		return xstream.fromXML(str);
+		return xstream.unmarshal(driver.createReader(new StringReader(str)));
 	}
 
 }
@@ -0,0 +1,21 @@
+package service.auxiliary;
+
+/**
+ * The XML message format, see {@link XMLBuilder}
+ */
+public class XMLCodec implements MessageCodec {
+
+	private final XMLBuilder builder = new XMLBuilder();
+
+	@Override
+	public String encode(Object message) {
+		return builder.toXML(message);
+	}
+
+	@Override
+	public Object decode(String message) {
+		if (BinaryCodec.isBinary(message))
+			return new BinaryCodec().decode(message);
+		return builder.fromXML(message);
+	}
+}
@@ -1,31 +1,62 @@
 package service.client;
 
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import service.auxiliary.AbstractMessage;
+import service.auxiliary.PendingRequests;
 import service.auxiliary.Response;
 import service.auxiliary.Request;
-import service.auxiliary.XMLBuilder;
 import service.provider.MessageReceiver;
 import service.provider.ServiceProvider;
 import service.provider.ServiceProviderFactory;
+import service.utility.Time;
 
 /**
  * 
- * The client for service invocation
+ * The client for service invocation.
+ * Many requests can be outstanding at once, responses are correlated by request id.
+ * At most {@link #getMaxInFlight()} requests are sent without a response, later ones
+ * wait in order until earlier ones complete.
  */
 public class AbstractServiceClient implements MessageReceiver {
     private String serviceEndpoint;
-    private Object result = null;
+    private AtomicInteger messageCount = new AtomicInteger(0);
+    private PendingRequests pendingRequests = new PendingRequests();
+
+    private int maxInFlight = Integer.MAX_VALUE;
+    private int inFlight = 0;
+    private Queue<OutgoingRequest> waiting = new ArrayDeque<OutgoingRequest>();
 
-    private static int clientId = 0;
+    private static AtomicInteger clientId = new AtomicInteger(0);
     private String clientEndpoint;
     private ServiceProvider serviceProvider;
+
+    /**
+     * A request not sent yet
+     */
+    private static class OutgoingRequest {
+		final Request request;
+		final CompletableFuture<Object> result;
+
+		OutgoingRequest(Request request, CompletableFuture<Object> result) {
+			this.request = request;
+			this.result = result;
+		}
+    }
     
     /**
      * Constructor
      * @param serviceEndpoint the service endpoint
      */
     public AbstractServiceClient(String serviceEndpoint) {
-    	String clientEndpoint = serviceEndpoint + ".#CLIENT#." + (clientId == 0 ? "" : clientId);
-    	clientId++;
+    	int id = clientId.getAndIncrement();
+    	// Unique across processes, which may share transports
+    	String clientEndpoint = serviceEndpoint + ".#CLIENT#." + ProcessHandle.current().pid() + (id == 0 ? "" : "." + id);
     	initialize(serviceEndpoint, clientEndpoint);
     }
 
@@ -45,27 +76,117 @@ public class AbstractServiceClient implements MessageReceiver {
 		serviceProvider.startListening(clientEndpoint, this);
     }
 
+    /**
+     * Stop receiving replies, freeing what the transport keeps for the client endpoint
+     */
+    public void close() {
+    	serviceProvider.stopListening();
+    }
+
     /**
      * Send a request to invoke a method
      * @param methodName the method name
      * @param params parameters for the method
      * @return  the method result
      */
-    public synchronized Object sendRequest(String methodName, Object... params) {
+    public Object sendRequest(String methodName, Object... params) {
+		CompletableFuture<Object> result = sendRequestAsync(methodName, params);
 		try {
-			Request request = new Request(0, clientEndpoint, clientEndpoint,methodName, params);
-			XMLBuilder build = new XMLBuilder();
-			String requestMessage = build.toXML(request);
-			serviceProvider.sendMessage(requestMessage, serviceEndpoint);
-			synchronized (this) {
-				this.wait();
-			}
-			return result;
-		} catch (Exception e) {
+			return Time.await(result);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.complete(null);
+			return null;
+		} catch (ExecutionException e) {
 			e.printStackTrace();
 			return null;
 		}
     }
+
+    /**
+     * Send a request to invoke a method without waiting for the result
+     * @param methodName the method name
+     * @param params parameters for the method
+     * @return the future method result
+     */
+    public CompletableFuture<Object> sendRequestAsync(String methodName, Object... params) {
+    	return sendRequestAsync(-1, methodName, params);
+    }
+
+    /**
+     * Send a request to invoke a method without waiting for the result.
+     * The returned future completes on the thread receiving the response.
+     * @param responseTime the max time for waiting the result, -1 to wait forever
+     * @param methodName the method name
+     * @param params parameters for the method
+     * @return the future method result, a TimeOutError if no result arrived in time
+     */
+    public CompletableFuture<Object> sendRequestAsync(long responseTime, String methodName, Object... params) {
+		int messageID = messageCount.incrementAndGet();
+		// The response time includes waiting for the in-flight window
+		CompletableFuture<Object> future = pendingRequests.add(messageID, responseTime);
+		Request request = new Request(messageID, clientEndpoint, clientEndpoint,methodName, params);
+		synchronized (waiting) {
+			waiting.add(new OutgoingRequest(request, future));
+		}
+		dispatch();
+		return future;
+    }
+
+    /**
+     * Send waiting requests while the in-flight window has room
+     */
+    private void dispatch() {
+		while (true) {
+			OutgoingRequest next;
+			synchronized (waiting) {
+				if (inFlight >= maxInFlight || waiting.isEmpty())
+					return;
+				next = waiting.poll();
+				if (next.result.isDone()) {
+					// Timed out while waiting
+					continue;
+				}
+				inFlight++;
+			}
+			next.result.whenComplete(new BiConsumer<Object, Throwable>() {
+				@Override
+				public void accept(Object result, Throwable failure) {
+					synchronized (waiting) {
+						inFlight--;
+					}
+					dispatch();
+				}
+			});
+			try {
+				serviceProvider.sendMessage(next.request, serviceEndpoint);
+			} catch (Exception e) {
+				e.printStackTrace();
+				next.result.complete(null);
+			}
+		}
+    }
+
+    /**
+     * Return the max number of requests sent without a response
+     * @return the in-flight window
+     */
+    public int getMaxInFlight() {
+    	return maxInFlight;
+    }
+
+    /**
+     * Set the max number of requests sent without a response, unlimited by default
+     * @param maxInFlight the in-flight window, at least 1
+     */
+    public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("The in-flight window must be at least 1.");
+		synchronized (waiting) {
+			this.maxInFlight = maxInFlight;
+		}
+		dispatch();
+    }
     
     /**
      * Return the service endpoint
@@ -86,19 +207,15 @@ public class AbstractServiceClient implements MessageReceiver {
     @Override
     public void onMessage(String message) {
 		try {
-			Response response = (Response) (new XMLBuilder().fromXML(message));
-			if (response.getReturnType() != null) {
-				Class<?> type = (Class<?>) response.getReturnType();
-				result = type.cast(response.getReturnValue());
-			} else {
-				result = null;
-			}
-			synchronized (this) {
-				this.notifyAll();
-			}
+			onMessage((AbstractMessage) serviceProvider.getMessageCodec().decode(message));
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
     }
 
+    @Override
+    public void onMessage(AbstractMessage message) {
+		pendingRequests.complete((Response) message);
+    }
+
 }
@@ -7,7 +7,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import service.adaptation.effector.ConfigurationEffector;
 import service.adaptation.probes.CostProbe;
@@ -23,7 +29,10 @@ import service.auxiliary.TimeOutError;
 import service.composite.qos.MinCostQoS;
 import service.composite.qos.ReliabilityQoS;
 import service.registry.ServiceRegistry;
+import service.utility.Time;
+import service.utility.VirtualThreads;
 import service.workflow.AbstractQoSRequirement;
+import service.workflow.WorkflowCache;
 import service.workflow.WorkflowEngine;
 
 /**
@@ -44,6 +53,11 @@ public class CompositeService extends AbstractService {
 	// This variable will effect only one thread/invocation of the workflow
 	private AtomicBoolean stopRetrying = new AtomicBoolean(false);
 
+	/**
+	 * Retries service calls, see {@link #invokeServiceOperationAsync}
+	 */
+	private ExecutorService callExecutor;
+
 	/**
 	 * Set the workflow
 	 * 
@@ -51,9 +65,21 @@ public class CompositeService extends AbstractService {
 	 *            the new workflow
 	 */
 	public void setWorkflow(String workflow) {
+		workflowCache.invalidate(this.workflow);
 		this.workflow = workflow;
 	}
 
+	private WorkflowCache workflowCache = new WorkflowCache();
+
+	/**
+	 * Return the cache of compiled workflows
+	 * 
+	 * @return the workflow cache
+	 */
+	public WorkflowCache getWorkflowCache() {
+		return workflowCache;
+	}
+
 	private Map<String, AbstractQoSRequirement> qosRequirements = new HashMap<String, AbstractQoSRequirement>();
 
 	private SDCache cache;
@@ -86,6 +112,11 @@ public class CompositeService extends AbstractService {
 						CSConfiguration.SDCacheShared(),
 						CSConfiguration.SDCacheTimeout(),
 						CSConfiguration.SDCacheSize());
+				this.configuration.engine = CSConfiguration.Engine();
+				this.configuration.tierUpThreshold = CSConfiguration.TierUpThreshold();
+				this.configuration.dataflowCalls = CSConfiguration.DataflowCalls();
+				this.configuration.asyncWorkflows = CSConfiguration.AsyncWorkflows();
+				this.configuration.virtualThreads = CSConfiguration.VirtualThreads();
 			} else {
 				// the default configuration
 				this.configuration = new Configuration(false, 1, 0, 10, false,
@@ -189,6 +220,36 @@ public class CompositeService extends AbstractService {
 		return result;
 	}
 
+	/**
+	 * Invoke this composite service without holding a thread while the workflow
+	 * waits for service calls, see {@link CompositeServiceConfiguration#AsyncWorkflows()}
+	 * 
+	 * @param qosRequirementName
+	 *            the QoS requirement name for executing the workflow
+	 * @param params
+	 *            the initial parameters for the workflow
+	 * @return the future result of the workflow
+	 */
+	public CompletableFuture<Object> invokeCompositeServiceAsync(final String qosRequirementName,
+			final Object params[]) {
+		WorkflowEngine engine = new WorkflowEngine(this);
+		workflowProbe.workflowStarted(qosRequirementName, params);
+		return engine.executeWorkflowAsync(workflow, qosRequirementName, params).thenApply(new Function<Object, Object>() {
+			@Override
+			public Object apply(Object result) {
+				workflowProbe.workflowEnded(result, qosRequirementName, params);
+				return result;
+			}
+		});
+	}
+
+	@Override
+	protected CompletableFuture<Object> invokeOperationAsync(String opName, Param[] params) {
+		if (configuration.asyncWorkflows && opName.equals("invokeCompositeService") && params.length == 2)
+			return invokeCompositeServiceAsync((String) params[0].getValue(), (Object[]) params[1].getValue());
+		return super.invokeOperationAsync(opName, params);
+	}
+
 	@Override
 	public Object invokeOperation(String opName, Param[] params) {
 		for (Method operation : this.getClass().getMethods()) {
@@ -378,6 +439,104 @@ public class CompositeService extends AbstractService {
 		return resultVal;
 	}
 
+	/**
+	 * Invoke a service operation without waiting for its result. Like
+	 * {@link #invokeServiceOperation(String, String, String, Object[])} it selects a
+	 * service, notifies the probes and retries timed out calls, but no thread waits
+	 * for the reply.
+	 * 
+	 * @param qosRequirement
+	 *            the QoS requirement
+	 * @param serviceName
+	 *            the service type
+	 * @param operationName
+	 *            the operation name
+	 * @param params
+	 *            the operation parameters
+	 * @return the future result, completed on the thread receiving the reply
+	 */
+	public CompletableFuture<Object> invokeServiceOperationAsync(String qosRequirement,
+			String serviceName, String operationName, Object[] params) {
+		CompletableFuture<Object> result = new CompletableFuture<Object>();
+		stopRetrying.set(false);
+		invokeServiceOperationAsync(serviceName, operationName, params, 0, result);
+		return result;
+	}
+
+	private void invokeServiceOperationAsync(final String serviceName, final String operationName,
+			final Object[] params, final int retryAttempts, final CompletableFuture<Object> result) {
+		final ServiceDescription service;
+		try {
+			List<ServiceDescription> services = lookupService(serviceName, operationName);
+			if (services == null || services.size() == 0) {
+				System.out.println("ServiceName: " + serviceName + "." + operationName + "not found!");
+				result.complete(new TimeOutError());
+				return;
+			}
+
+			service = applyLotusStrategy(services, operationName, params);
+
+			System.out.println("Operation " + service.getServiceType() + "."
+					+ operationName
+					+ " has been selected with following custom properties:"
+					+ service.getCustomProperties());
+
+			this.getWorkflowProbe().serviceOperationInvoked(service, operationName, params);
+		} catch (RuntimeException e) {
+			result.completeExceptionally(e);
+			return;
+		}
+
+		int timeout = this.getConfiguration().timeout;
+		int maxResponseTime = timeout != 0 ? timeout : service.getResponseTime() * 3;
+		this.sendRequestAsync(service.getServiceType(), service.getServiceEndpoint(), maxResponseTime, operationName, params)
+				.whenComplete(new BiConsumer<Object, Throwable>() {
+					@Override
+					public void accept(Object resultVal, Throwable failure) {
+						if (failure != null) {
+							result.completeExceptionally(failure);
+							return;
+						}
+						if (resultVal instanceof TimeOutError) {
+							getWorkflowProbe().serviceOperationTimeout(service, operationName, params);
+						} else {
+							getWorkflowProbe().serviceOperationReturned(service, resultVal, operationName, params);
+							getCostProbe().costOperation(service, operationName);
+						}
+
+						if (stopRetrying.get() == true) {
+							stopRetrying.set(false);
+						} else if (resultVal instanceof TimeOutError && retryAttempts + 1 < getConfiguration().maxRetryAttempts) {
+							// The lookup may block, so leave the thread delivering replies
+							getCallExecutor().execute(Time.track(new Runnable() {
+								@Override
+								public void run() {
+									invokeServiceOperationAsync(serviceName, operationName, params, retryAttempts + 1, result);
+								}
+							}));
+							return;
+						}
+						result.complete(resultVal);
+					}
+				});
+	}
+
+	private synchronized ExecutorService getCallExecutor() {
+		if (callExecutor == null && getConfiguration().virtualThreads)
+			callExecutor = VirtualThreads.newExecutor();
+		if (callExecutor == null) {
+			callExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, getServiceDescription().getServiceEndpoint() + "-call");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return callExecutor;
+	}
+
 	public Object invokeLocalOperation(String operationName, Object[] params) {
 		for (Method operation : this.getClass().getMethods()) {
 			if (operation.getAnnotation(LocalOperation.class) != null) {
@@ -1,6 +1,7 @@
 package service.composite;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import service.client.AbstractServiceClient;
 
@@ -30,6 +31,15 @@ public class CompositeServiceClient {
     	client = new AbstractServiceClient(serviceEndpoint, clientEndpoint);
     }
     
+    /**
+     * Set the max number of invocations sent without a result, unlimited by default.
+     * Further invocations wait until earlier ones complete.
+     * @param maxInFlight the in-flight window, at least 1
+     */
+    public void setMaxInFlight(int maxInFlight) {
+    	client.setMaxInFlight(maxInFlight);
+    }
+
     /**
      * Invoke related composite service to start a workflow with specific QoS requirements 
      * and initial parameters for the workflow
@@ -41,6 +51,27 @@ public class CompositeServiceClient {
     	return client.sendRequest("invokeCompositeService", qosRequirement, params);
     }
     
+    /**
+     * Invoke related composite service without waiting for the workflow to complete
+     * @param qosRequirement the QoS requirement name
+     * @param params the initial parameters for the workflow
+     * @return the future workflow result
+     */
+    public CompletableFuture<Object> invokeCompositeServiceAsync(String qosRequirement, Object... params) {
+    	return client.sendRequestAsync("invokeCompositeService", qosRequirement, params);
+    }
+
+    /**
+     * Invoke related composite service without waiting for the workflow to complete
+     * @param responseTime the max time for waiting the result, -1 to wait forever
+     * @param qosRequirement the QoS requirement name
+     * @param params the initial parameters for the workflow
+     * @return the future workflow result, a TimeOutError if no result arrived in time
+     */
+    public CompletableFuture<Object> invokeCompositeServiceAsync(long responseTime, String qosRequirement, Object... params) {
+    	return client.sendRequestAsync(responseTime, "invokeCompositeService", qosRequirement, params);
+    }
+
     /**
      * Get list of QoS requirements
      * @return
@@ -8,9 +8,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import service.auxiliary.Operation;
 import service.auxiliary.ServiceDescription;
@@ -27,7 +27,7 @@ public class SDCache{
     private Map<Description, List<ServiceDescription>> caches = new ConcurrentHashMap<Description, List<ServiceDescription>>();
     private int maxCacheSize;
     private int refreshPeriod=10*Time.scale;         
-    private Timer timer = null;    
+    private Future<?> timer = null;    
     
     /**
      * Return cache refresh period
@@ -46,18 +46,16 @@ public class SDCache{
 	public boolean setRefreshPeriod(int refreshPeriod) {
 		this.refreshPeriod = refreshPeriod;
 		if (timer != null){
-			timer.cancel();
-			timer.purge();
+			timer.cancel(false);
 			timer = null;
 		}
 		
 		if(refreshPeriod>0){
-			timer = new Timer();
-			timer.scheduleAtFixedRate(new TimerTask() {
+			timer = Time.scheduleAtFixedRate(new Runnable() {
 	      	  	public void run() {
 	      	  		refresh();
 	      	  	}
-			}, refreshPeriod, refreshPeriod);
+			}, refreshPeriod, refreshPeriod, TimeUnit.MILLISECONDS);
 			return true;
 		}
 		return false;
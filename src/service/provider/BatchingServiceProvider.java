@@ -0,0 +1,231 @@
+package service.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import service.auxiliary.AbstractMessage;
+import service.auxiliary.MessageCodec;
+import service.utility.Time;
+
+/**
+ *
+ * A service provider sending the messages to a destination together, in one envelope
+ *
+ * A message to a destination that got none for the flush delay is sent at once, so a lightly
+ * loaded destination sees no added latency. Messages following it within the delay wait, and
+ * are sent in one envelope when the delay is over or the envelope is full. The receiving
+ * provider unpacks envelopes into one call of the receiver per message, in order. Messages to
+ * one destination keep their order.
+ */
+public class BatchingServiceProvider implements ServiceProvider {
+
+    /**
+     * First character of an envelope, no codec starts a message with it. ASCII, so envelopes
+     * of ASCII messages stay on the fast path of string encoding.
+     */
+    private static final char ENVELOPE = '\u0002';
+
+    /**
+     * Messages waiting for one destination. One thread at a time sends them, in the order
+     * they were added, so the messages of each sender keep their order.
+     */
+    private class Batch implements Runnable {
+
+    	private final String destinationEndPoint;
+    	private final ConcurrentLinkedQueue<String> messages = new ConcurrentLinkedQueue<>();
+    	private final AtomicInteger waiting = new AtomicInteger();
+    	private final AtomicBoolean sending = new AtomicBoolean();
+    	private final AtomicBoolean scheduled = new AtomicBoolean();
+    	private volatile long lastMessage;
+
+    	Batch(String destinationEndPoint) {
+    		this.destinationEndPoint = destinationEndPoint;
+    		this.lastMessage = System.nanoTime() - flushDelayNanos;
+    	}
+
+    	void add(String msgText) {
+    		long now = System.nanoTime();
+    		boolean idle = now - lastMessage >= flushDelayNanos;
+    		lastMessage = now;
+    		messages.add(msgText);
+    		// Counted even if sent at once, as sending discounts it
+    		boolean full = waiting.incrementAndGet() >= maxMessages;
+    		if (idle || full) {
+    			flush();
+    		} else if (scheduled.compareAndSet(false, true)) {
+    			Time.schedule(this, flushDelayNanos, TimeUnit.NANOSECONDS);
+    		}
+    	}
+
+		@Override
+		public void run() {
+			scheduled.set(false);
+			flush();
+		}
+
+		/**
+		 * Send the waiting messages, unless another thread does
+		 */
+		private void flush() {
+			List<String> envelope = new ArrayList<>();
+			while (!messages.isEmpty() && sending.compareAndSet(false, true)) {
+				try {
+					String msgText;
+					int size = 0;
+					while ((msgText = messages.poll()) != null) {
+						envelope.add(msgText);
+						size += msgText.length();
+						if (envelope.size() == maxMessages || size >= maxSize) {
+							send(envelope);
+							size = 0;
+						}
+					}
+					send(envelope);
+				} finally {
+					sending.set(false);
+				}
+			}
+		}
+
+		private void send(List<String> envelope) {
+			if (envelope.isEmpty())
+				return;
+			waiting.addAndGet(-envelope.size());
+			serviceProvider.sendMessage(envelope.size() == 1 ? envelope.get(0) : pack(envelope), destinationEndPoint);
+			envelopes.incrementAndGet();
+			envelope.clear();
+		}
+    }
+
+    /**
+     * Unpacks envelopes for a receiver
+     */
+    private static class Unpacker implements MessageReceiver {
+
+    	private final MessageReceiver messageReceiver;
+
+    	Unpacker(MessageReceiver messageReceiver) {
+    		this.messageReceiver = messageReceiver;
+    	}
+
+		@Override
+		public void onMessage(String message) {
+			if (message.isEmpty() || message.charAt(0) != ENVELOPE) {
+				messageReceiver.onMessage(message);
+				return;
+			}
+			for (String msgText : unpack(message))
+				messageReceiver.onMessage(msgText);
+		}
+
+		@Override
+		public void onMessage(AbstractMessage message) {
+			messageReceiver.onMessage(message);
+		}
+    }
+
+    private final ServiceProvider serviceProvider;
+    private final ConcurrentHashMap<String, Batch> batches = new ConcurrentHashMap<>();
+    private final long flushDelayNanos;
+    private final int maxMessages;
+    private final int maxSize;
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong envelopes = new AtomicLong();
+
+    /**
+     * Constructor, with the flush delay in microseconds from "resep.batch.delay" (200 by default),
+     * and the max number of messages and characters of an envelope from "resep.batch.messages" (64)
+     * and "resep.batch.size" (65536)
+     * @param serviceProvider the service provider sending the envelopes
+     */
+    public BatchingServiceProvider(ServiceProvider serviceProvider) {
+    	this(serviceProvider, Integer.getInteger("resep.batch.delay", 200), TimeUnit.MICROSECONDS,
+    			Integer.getInteger("resep.batch.messages", 64), Integer.getInteger("resep.batch.size", 64 * 1024));
+    }
+
+    /**
+     * Constructor
+     * @param serviceProvider the service provider sending the envelopes
+     * @param flushDelay the max time a message waits for others
+     * @param unit the unit of the flush delay
+     * @param maxMessages the max number of messages in an envelope
+     * @param maxSize the number of characters filling an envelope
+     */
+    public BatchingServiceProvider(ServiceProvider serviceProvider, long flushDelay, TimeUnit unit, int maxMessages, int maxSize) {
+    	if (maxMessages < 1 || maxSize < 1)
+    		throw new IllegalArgumentException("Invalid envelope size: " + maxMessages + " messages, " + maxSize + " characters");
+    	this.serviceProvider = serviceProvider;
+    	this.flushDelayNanos = unit.toNanos(flushDelay);
+    	this.maxMessages = maxMessages;
+    	this.maxSize = maxSize;
+    }
+
+    @Override
+    public void startListening(String endPoint, MessageReceiver messageReceiver) {
+    	serviceProvider.startListening(endPoint, new Unpacker(messageReceiver));
+    }
+
+    @Override
+    public void stopListening() {
+    	serviceProvider.stopListening();
+    }
+
+    @Override
+    public void sendMessage(String msgText, String destinationEndPoint) {
+    	messagesSent.incrementAndGet();
+    	Batch batch = batches.get(destinationEndPoint);
+    	if (batch == null) {
+    		batches.putIfAbsent(destinationEndPoint, new Batch(destinationEndPoint));
+    		batch = batches.get(destinationEndPoint);
+    	}
+    	batch.add(msgText);
+    }
+
+    @Override
+    public MessageCodec getMessageCodec() {
+    	return serviceProvider.getMessageCodec();
+    }
+
+    /**
+     * Return the average number of messages per envelope sent so far
+     * @return the average batch size, 0 if nothing was sent
+     */
+    public double getAverageBatchSize() {
+    	long sent = envelopes.get();
+    	return sent == 0 ? 0 : (double) messagesSent.get() / sent;
+    }
+
+    /**
+     * Pack messages into an envelope: the length of each followed by a colon and the message
+     */
+    static String pack(List<String> messages) {
+    	int size = 1;
+    	for (String msgText : messages)
+    		size += msgText.length() + 8;
+    	StringBuilder envelope = new StringBuilder(size);
+    	envelope.append(ENVELOPE);
+    	for (String msgText : messages)
+    		envelope.append(msgText.length()).append(':').append(msgText);
+    	return envelope.toString();
+    }
+
+    static List<String> unpack(String envelope) {
+    	List<String> messages = new ArrayList<>();
+    	int position = 1;
+    	while (position < envelope.length()) {
+    		int length = 0;
+    		char c;
+    		while ((c = envelope.charAt(position++)) != ':')
+    			length = length * 10 + c - '0';
+    		messages.add(envelope.substring(position, position + length));
+    		position += length;
+    	}
+    	return messages;
+    }
+}
@@ -1,5 +1,8 @@
 package service.provider;
 
+import service.auxiliary.AbstractMessage;
+import service.auxiliary.XMLCodec;
+
 /**
  * This interface enables a service to listen for messages from service provider.
  * 
@@ -12,4 +15,13 @@ public interface MessageReceiver {
      * @param message the incoming message
      */
     public void onMessage(String message);
+
+    /**
+     * A service provider delivering messages within the JVM hands them over through
+     * this method without encoding. Receivers that do not override it get the XML text.
+     * @param message the incoming message, not shared with the sender
+     */
+    public default void onMessage(AbstractMessage message) {
+    	onMessage(new XMLCodec().encode(message));
+    }
 }
@@ -0,0 +1,133 @@
+package service.provider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import service.auxiliary.AbstractMessage;
+import service.auxiliary.MessageCodec;
+
+/**
+ *
+ * A service provider sending each message over the cheapest transport reaching its destination
+ *
+ * It listens on all its transports, so it can be reached through any of them. A destination
+ * in the same JVM gets messages in memory, one on the same host through shared memory, any
+ * other over the network, depending on the transports configured. The transport chosen for a
+ * destination is kept for a second, then checked again. Destinations no transport reaches
+ * are sent over the most remote one, which reports the failure.
+ */
+public class RoutingServiceProvider implements ServiceProvider {
+
+    private static final long ROUTE_TTL = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The transport chosen for a destination
+     */
+    private static class Route {
+    	final ServiceProvider serviceProvider;
+    	final TransportFactory transport;
+    	final long expires;
+
+    	Route(ServiceProvider serviceProvider, TransportFactory transport, long expires) {
+    		this.serviceProvider = serviceProvider;
+    		this.transport = transport;
+    		this.expires = expires;
+    	}
+    }
+
+    private final TransportFactory[] transports;
+    private final ServiceProvider[] serviceProviders;
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+    private MessageCodec messageCodec = ServiceProviderFactory.getMessageCodec();
+
+    /**
+     * Constructor
+     * @param transports the transports, tried from the cheapest, in this order for the same locality
+     */
+    public RoutingServiceProvider(List<TransportFactory> transports) {
+    	if (transports.isEmpty())
+    		throw new IllegalArgumentException("No transport");
+    	List<TransportFactory> sorted = new ArrayList<>(transports);
+    	Collections.sort(sorted, new Comparator<TransportFactory>() {
+			@Override
+			public int compare(TransportFactory a, TransportFactory b) {
+				return a.getLocality().compareTo(b.getLocality());
+			}
+    	});
+    	this.transports = sorted.toArray(new TransportFactory[sorted.size()]);
+    	this.serviceProviders = new ServiceProvider[this.transports.length];
+    	for (int i = 0; i < this.transports.length; i++)
+    		serviceProviders[i] = ServiceProviderFactory.createServiceProvider(this.transports[i]);
+    }
+
+    @Override
+    public void startListening(String endPoint, MessageReceiver messageReceiver) {
+    	for (ServiceProvider serviceProvider : serviceProviders)
+    		serviceProvider.startListening(endPoint, messageReceiver);
+    }
+
+    @Override
+    public void stopListening() {
+    	for (ServiceProvider serviceProvider : serviceProviders)
+    		serviceProvider.stopListening();
+    }
+
+    @Override
+    public void sendMessage(String msgText, String destinationEndPoint) {
+    	route(destinationEndPoint).serviceProvider.sendMessage(msgText, destinationEndPoint);
+    }
+
+    @Override
+    public void sendMessage(AbstractMessage message, String destinationEndPoint) {
+    	Route route = route(destinationEndPoint);
+    	// A transport within the JVM hands the message over without encoding it, others get it
+    	// encoded with the codec of this provider, which its receivers decode with
+    	if (route.transport.getLocality() == TransportFactory.Locality.JVM)
+    		route.serviceProvider.sendMessage(message, destinationEndPoint);
+    	else
+    		route.serviceProvider.sendMessage(messageCodec.encode(message), destinationEndPoint);
+    }
+
+    @Override
+    public MessageCodec getMessageCodec() {
+    	return messageCodec;
+    }
+
+    /**
+     * Set the codec for the messages sent through this provider, over any transport
+     * @param messageCodec the new message codec
+     */
+    public void setMessageCodec(MessageCodec messageCodec) {
+    	this.messageCodec = messageCodec;
+    }
+
+    /**
+     * Return the name of the transport messages to an endpoint are sent over now
+     * @param destinationEndPoint the destination
+     * @return the transport name
+     */
+    public String getTransport(String destinationEndPoint) {
+    	return route(destinationEndPoint).transport.getName();
+    }
+
+    private Route route(String destinationEndPoint) {
+    	long now = System.nanoTime();
+    	Route route = routes.get(destinationEndPoint);
+    	if (route != null && now - route.expires < 0)
+    		return route;
+    	int chosen = transports.length - 1;
+    	for (int i = 0; i < transports.length; i++) {
+    		if (transports[i].canReach(destinationEndPoint)) {
+    			chosen = i;
+    			break;
+    		}
+    	}
+    	route = new Route(serviceProviders[chosen], transports[chosen], now + ROUTE_TTL);
+    	routes.put(destinationEndPoint, route);
+    	return route;
+    }
+}
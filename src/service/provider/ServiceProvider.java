@@ -1,5 +1,8 @@
 package service.provider;
 
+import service.auxiliary.AbstractMessage;
+import service.auxiliary.MessageCodec;
+
 /**
  * This interface should be implemented by the classes that are interested to provide communication mechanism between different services.
  * 
@@ -25,4 +28,21 @@ public interface ServiceProvider {
      * @param destinationEndPoint  the destination to send the message
      */
     public void sendMessage(String msgText, String destinationEndPoint);
+
+    /**
+     * Send a request or response. Encodes it with the message codec unless the
+     * provider can hand it over as an object.
+     * @param message the message
+     * @param destinationEndPoint the destination to send the message
+     */
+    public default void sendMessage(AbstractMessage message, String destinationEndPoint) {
+    	sendMessage(getMessageCodec().encode(message), destinationEndPoint);
+    }
+
+    /**
+     * Return the codec for the messages sent through this provider, which receivers decode
+     * them with. Providers take {@link ServiceProviderFactory#getMessageCodec()} when created.
+     * @return the message codec
+     */
+    public MessageCodec getMessageCodec();
 }
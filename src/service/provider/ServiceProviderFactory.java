@@ -1,6 +1,14 @@
 package service.provider;
 
-import service.provider.rsp.RSPServiceProvider;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import service.auxiliary.MessageCodec;
+import service.auxiliary.XMLCodec;
+import service.provider.rsp.RSPTransportFactory;
 
 /**
  * This class helps to choose a service provider.
@@ -8,13 +16,113 @@ import service.provider.rsp.RSPServiceProvider;
  * @author M. Usman Iftikhar & Yifan Ruan
  */
 public class ServiceProviderFactory {
+
+    private static MessageCodec messageCodec = new XMLCodec();
+    private static Map<String, TransportFactory> transportFactories;
+    private static volatile String transport = System.getProperty("resep.transport", "rsp");
+    private static volatile boolean batching = Boolean.getBoolean("resep.batching");
+
+    /**
+     * Return the message codec of the service providers created from now on
+     * @return the message codec, XML by default
+     */
+    public static MessageCodec getMessageCodec() {
+    	return messageCodec;
+    }
+
+    /**
+     * Set the message codec of the service providers created from now on
+     * @param messageCodec the new message codec, e.g. {@link service.auxiliary.BinaryCodec}
+     */
+    public static void setMessageCodec(MessageCodec messageCodec) {
+    	ServiceProviderFactory.messageCodec = messageCodec;
+    }
+    
+    /**
+     * Return the transports: the built-in "rsp" and those found on the class path, see {@link TransportFactory}
+     * @return the transports by name
+     */
+    public static synchronized Map<String, TransportFactory> getTransportFactories() {
+    	if (transportFactories == null) {
+    		Map<String, TransportFactory> factories = new LinkedHashMap<>();
+    		// Available even if the service files are not on the class path
+    		TransportFactory builtIn = new RSPTransportFactory();
+    		factories.put(builtIn.getName(), builtIn);
+    		for (TransportFactory factory : ServiceLoader.load(TransportFactory.class, ServiceProviderFactory.class.getClassLoader()))
+    			factories.put(factory.getName(), factory);
+    		transportFactories = factories;
+    	}
+    	return transportFactories;
+    }
+
+    /**
+     * Return the transports of the service providers created from now on
+     * @return the transport names, separated by commas
+     */
+    public static String getTransport() {
+    	return transport;
+    }
+
+    /**
+     * Set the transports of the service providers created from now on, by default "resep.transport" or "rsp".
+     * With several transports, each message goes over the cheapest one reaching its destination,
+     * see {@link RoutingServiceProvider}.
+     * @param transport the transport names, separated by commas, e.g. "rsp,shm,tcp"
+     */
+    public static void setTransport(String transport) {
+    	getTransportFactories(transport);
+    	ServiceProviderFactory.transport = transport;
+    }
+    
+    /**
+     * Check whether the service providers created from now on send messages in envelopes
+     * @return true if messages are batched
+     */
+    public static boolean isBatching() {
+    	return batching;
+    }
+
+    /**
+     * Send the messages to a destination in envelopes under load, see {@link BatchingServiceProvider},
+     * by default if "resep.batching" is true. Transports within the JVM send messages one by one.
+     * @param batching true to batch messages
+     */
+    public static void setBatching(boolean batching) {
+    	ServiceProviderFactory.batching = batching;
+    }
     
     /**
      * This method helps to choose a service provider from list of available service providers.
      * @return ServiceProvider  the specific service provider
      */
     public static ServiceProvider createServiceProvider() {
-    	//return new ActiveMQProvider();
-    	return new RSPServiceProvider();
+    	List<TransportFactory> factories = getTransportFactories(transport);
+    	if (factories.size() == 1)
+    		return createServiceProvider(factories.get(0));
+    	return new RoutingServiceProvider(factories);
+    }
+
+    /**
+     * Create a service provider using a transport
+     * @param factory the transport
+     * @return the service provider
+     */
+    static ServiceProvider createServiceProvider(TransportFactory factory) {
+    	ServiceProvider serviceProvider = factory.createServiceProvider();
+    	if (batching && factory.getLocality() != TransportFactory.Locality.JVM)
+    		serviceProvider = new BatchingServiceProvider(serviceProvider);
+    	return serviceProvider;
+    }
+
+    private static List<TransportFactory> getTransportFactories(String transport) {
+    	Map<String, TransportFactory> available = getTransportFactories();
+    	List<TransportFactory> factories = new ArrayList<>();
+    	for (String name : transport.split(",")) {
+    		TransportFactory factory = available.get(name.trim());
+    		if (factory == null)
+    			throw new IllegalArgumentException("Unknown transport: " + name.trim() + ", available: " + available.keySet());
+    		factories.add(factory);
+    	}
+    	return factories;
     }
 }
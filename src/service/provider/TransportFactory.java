@@ -0,0 +1,51 @@
+package service.provider;
+
+/**
+ * A kind of service provider, found with {@link java.util.ServiceLoader} and chosen by name,
+ * see {@link ServiceProviderFactory}
+ */
+public interface TransportFactory {
+
+    /**
+     * How far a transport reaches, from the cheapest to the most expensive
+     */
+    public enum Locality {
+    	/**
+    	 * Endpoints in the same JVM
+    	 */
+    	JVM,
+    	/**
+    	 * Endpoints in processes on the same host
+    	 */
+    	HOST,
+    	/**
+    	 * Endpoints anywhere
+    	 */
+    	NETWORK
+    }
+
+    /**
+     * Return the name the transport is chosen by
+     * @return the name
+     */
+    public String getName();
+
+    /**
+     * Return how far the transport reaches
+     * @return the locality
+     */
+    public Locality getLocality();
+
+    /**
+     * Check whether a message sent now would reach an endpoint
+     * @param endPoint the endpoint
+     * @return true if the endpoint is reachable
+     */
+    public boolean canReach(String endPoint);
+
+    /**
+     * Create a service provider using the transport
+     * @return the service provider
+     */
+    public ServiceProvider createServiceProvider();
+}
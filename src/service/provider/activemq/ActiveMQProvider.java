@@ -6,63 +6,120 @@ import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
-import javax.jms.MessageProducer;
-import javax.jms.Queue;
-import javax.jms.QueueConnection;
 import javax.jms.QueueConnectionFactory;
 import javax.jms.QueueSession;
 import javax.jms.Session;
 import javax.jms.TextMessage;
 import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import service.auxiliary.MessageCodec;
 import service.provider.MessageReceiver;
 import service.provider.ServiceProvider;
+import service.provider.ServiceProviderFactory;
 
 
 /**
  * 
  * The service provider with ActiveMQ
- * 
+ *
+ * Messages are sent over connections, sessions and producers kept open and shared by all
+ * providers of a broker, see {@link JMSConnectionPool}.
  */
 public class ActiveMQProvider implements ServiceProvider, MessageListener {
 
-    private InitialContext initContext;
-    private QueueConnectionFactory queueConnectingFactory;
-    private QueueConnection queueConnection;
+    private static QueueConnectionFactory defaultConnectionFactory;
+
+    private QueueConnectionFactory connectionFactory;
+    private JMSConnectionPool pool;
+    private QueueSession session;
     //private String endPoint;
     private MessageReceiver messageReceiver;
+    private MessageCodec messageCodec = ServiceProviderFactory.getMessageCodec();
+    private volatile boolean sendInBackground;
+
+    /**
+     * Constructor, for the broker configured in JNDI as "ConnectionFactory"
+     */
+    public ActiveMQProvider() {
+    }
+
+    /**
+     * Constructor
+     * @param connectionFactory the connection factory of the broker, e.g. tools.InMemoryBroker in tests
+     */
+    public ActiveMQProvider(QueueConnectionFactory connectionFactory) {
+    	this.connectionFactory = connectionFactory;
+    }
+
+    private static synchronized QueueConnectionFactory getDefaultConnectionFactory() throws NamingException {
+    	if (defaultConnectionFactory == null)
+    		defaultConnectionFactory = (QueueConnectionFactory) new InitialContext().lookup("ConnectionFactory");
+    	return defaultConnectionFactory;
+    }
+
+    private synchronized JMSConnectionPool getPool() throws NamingException {
+    	if (pool == null) {
+    		if (connectionFactory == null)
+    			connectionFactory = getDefaultConnectionFactory();
+    		pool = JMSConnectionPool.getInstance(connectionFactory);
+    	}
+    	return pool;
+    }
 
     @Override
     public void sendMessage(String msgText, String destinationEndPoint) {
     	try {
-    		Queue destination = (Queue) initContext.lookup("dynamicQueues/" + destinationEndPoint);
-    		QueueConnection connection = queueConnectingFactory.createQueueConnection();
-    		QueueSession session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
-    		MessageProducer sender = session.createProducer(destination);
-    		sender.send(session.createTextMessage(msgText));
-    		connection.close();
+    		if (sendInBackground)
+    			getPool().sendInBackground(destinationEndPoint, msgText);
+    		else
+    			getPool().send(destinationEndPoint, msgText);
     	} catch (Exception e) {
     		e.printStackTrace();
     	}
     }
 
+    /**
+     * Check whether messages are sent in the background
+     * @return true if messages are sent in the background
+     */
+    public boolean isSendInBackground() {
+    	return sendInBackground;
+    }
+
+    /**
+     * Send messages in the background and in batches, so sending does not wait for the broker.
+     * Messages sent in the background by all providers of the broker keep their order.
+     * @param sendInBackground true to send in the background
+     */
+    public void setSendInBackground(boolean sendInBackground) {
+    	this.sendInBackground = sendInBackground;
+    }
+
+    @Override
+    public MessageCodec getMessageCodec() {
+    	return messageCodec;
+    }
+
+    /**
+     * Set the codec for the messages sent through this provider
+     * @param messageCodec the new message codec
+     */
+    public void setMessageCodec(MessageCodec messageCodec) {
+    	this.messageCodec = messageCodec;
+    }
+
     @Override
     public void startListening(String endPoint, MessageReceiver messageReceiver) {
     	try {
     		//this.endPoint = endPoint;
     		this.messageReceiver = messageReceiver;
-	    
-    		initContext = new InitialContext();
-    		queueConnectingFactory = (QueueConnectionFactory) initContext.lookup("ConnectionFactory");
 
-    		Queue queue = (Queue) initContext.lookup("dynamicQueues/" + endPoint);
+    		JMSConnectionPool pool = getPool();
+    		session = pool.getConnection().createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
 
-    		queueConnection = queueConnectingFactory.createQueueConnection();
-    		QueueSession session = queueConnection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
-
-    		MessageConsumer receiver = session.createConsumer(queue);
+    		MessageConsumer receiver = session.createConsumer(pool.getQueue(session, endPoint));
     		receiver.setMessageListener(this);
-
-    		queueConnection.start();
     	} catch (Exception e) {
     		if (e.getCause() instanceof ConnectException) {
     			System.err.println("Cannot connect to ActivMQ. Please make sure that ActivMQ is working.");
@@ -74,7 +131,8 @@ public class ActiveMQProvider implements ServiceProvider, MessageListener {
     @Override
     public void stopListening() {
     	try {
-    		queueConnection.close();
+    		// The connection stays open for the other providers
+    		session.close();
     	} catch (JMSException e) {
     		e.printStackTrace();
     	}
@@ -0,0 +1,31 @@
+package service.provider.activemq;
+
+import service.provider.ServiceProvider;
+import service.provider.TransportFactory;
+
+/**
+ * The transport through the ActiveMQ broker configured in JNDI, see {@link ActiveMQProvider}
+ */
+public class ActiveMQTransportFactory implements TransportFactory {
+
+    @Override
+    public String getName() {
+    	return "activemq";
+    }
+
+    @Override
+    public Locality getLocality() {
+    	return Locality.NETWORK;
+    }
+
+    @Override
+    public boolean canReach(String endPoint) {
+    	// The broker keeps messages until the endpoint listens
+    	return true;
+    }
+
+    @Override
+    public ServiceProvider createServiceProvider() {
+    	return new ActiveMQProvider();
+    }
+}
@@ -0,0 +1,317 @@
+package service.provider.activemq;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueConnectionFactory;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+
+/**
+ * 
+ * Long-lived connections, sessions and producers to one JMS broker, shared by all providers
+ *
+ * A few connections are opened once and kept. Sessions are single-threaded, so a sender
+ * borrows one with its producers for the time of a send. Each session caches one producer
+ * per destination. Queues are looked up once by name. Messages can also be sent in the
+ * background, in batches committed at once by a transacted session.
+ */
+public class JMSConnectionPool {
+
+	private static final Map<QueueConnectionFactory, JMSConnectionPool> pools = new HashMap<>();
+
+	/**
+	 * The number of times a batch is sent before it is dropped
+	 */
+	private static final int SEND_ATTEMPTS = 2;
+
+	/**
+	 * Return the pool of a broker, creating it on first use
+	 * @param connectionFactory the connection factory of the broker
+	 * @return the pool
+	 */
+	public static synchronized JMSConnectionPool getInstance(QueueConnectionFactory connectionFactory) {
+		JMSConnectionPool pool = pools.get(connectionFactory);
+		if (pool == null) {
+			pool = new JMSConnectionPool(connectionFactory, Integer.getInteger("resep.jms.connections", 2),
+					Integer.getInteger("resep.jms.sessions", 16));
+			pools.put(connectionFactory, pool);
+		}
+		return pool;
+	}
+
+	/**
+	 * A session with its producers
+	 */
+	private class PooledSession {
+
+		private final QueueConnection connection;
+		private final QueueSession session;
+		private final Map<String, MessageProducer> producers = new HashMap<>();
+
+		PooledSession(QueueConnection connection, boolean transacted) throws JMSException {
+			this.connection = connection;
+			this.session = connection.createQueueSession(transacted, transacted ? Session.SESSION_TRANSACTED : Session.AUTO_ACKNOWLEDGE);
+		}
+
+		void send(String destinationEndPoint, String msgText) throws JMSException {
+			MessageProducer producer = producers.get(destinationEndPoint);
+			if (producer == null) {
+				producer = session.createProducer(getQueue(session, destinationEndPoint));
+				producers.put(destinationEndPoint, producer);
+			}
+			producer.send(session.createTextMessage(msgText));
+		}
+
+		void close() {
+			try {
+				session.close();
+			} catch (JMSException e) {
+				// The connection is gone already
+			}
+		}
+	}
+
+	/**
+	 * A message waiting to be sent in the background
+	 */
+	private static class Outgoing {
+		final String destinationEndPoint;
+		final String msgText;
+
+		Outgoing(String destinationEndPoint, String msgText) {
+			this.destinationEndPoint = destinationEndPoint;
+			this.msgText = msgText;
+		}
+	}
+
+	private final QueueConnectionFactory connectionFactory;
+	private final QueueConnection[] connections;
+	private final AtomicInteger nextConnection = new AtomicInteger();
+	private final int maxIdleSessions;
+	private final ConcurrentLinkedQueue<PooledSession> idleSessions = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private final ConcurrentHashMap<String, Queue> queues = new ConcurrentHashMap<>();
+
+	private final BlockingQueue<Outgoing> outgoing = new LinkedBlockingQueue<>();
+	private volatile int batchSize = 64;
+	private final AtomicLong droppedMessages = new AtomicLong();
+	private Thread backgroundSender;
+
+	/**
+	 * Constructor
+	 * @param connectionFactory the connection factory of the broker
+	 * @param connections the number of connections
+	 * @param maxIdleSessions the max number of sessions kept for later sends
+	 */
+	public JMSConnectionPool(QueueConnectionFactory connectionFactory, int connections, int maxIdleSessions) {
+		this.connectionFactory = connectionFactory;
+		this.connections = new QueueConnection[Math.max(1, connections)];
+		this.maxIdleSessions = maxIdleSessions;
+	}
+
+	/**
+	 * Return one of the connections, opening it on first use
+	 * @return a started connection
+	 * @throws JMSException if the broker can not be reached
+	 */
+	public QueueConnection getConnection() throws JMSException {
+		int index = Math.floorMod(nextConnection.getAndIncrement(), connections.length);
+		synchronized (connections) {
+			QueueConnection connection = connections[index];
+			if (connection == null) {
+				final QueueConnection created = connectionFactory.createQueueConnection();
+				final int slot = index;
+				created.setExceptionListener(new ExceptionListener() {
+					@Override
+					public void onException(JMSException exception) {
+						discard(slot, created);
+					}
+				});
+				created.start();
+				connections[index] = connection = created;
+			}
+			return connection;
+		}
+	}
+
+	/**
+	 * Forget a broken connection, the sessions on it are closed when they are next used
+	 */
+	private void discard(int slot, QueueConnection connection) {
+		synchronized (connections) {
+			if (connections[slot] == connection)
+				connections[slot] = null;
+		}
+		try {
+			connection.close();
+		} catch (JMSException e) {
+			// Already broken
+		}
+	}
+
+	private boolean isOpen(QueueConnection connection) {
+		synchronized (connections) {
+			for (QueueConnection open : connections)
+				if (open == connection)
+					return true;
+			return false;
+		}
+	}
+
+	/**
+	 * Return the queue of an endpoint
+	 * @param session a session to create the queue with on first use
+	 * @param endPoint the endpoint
+	 * @return the queue
+	 * @throws JMSException if the queue can not be created
+	 */
+	public Queue getQueue(Session session, String endPoint) throws JMSException {
+		Queue queue = queues.get(endPoint);
+		if (queue == null) {
+			queue = session.createQueue(endPoint);
+			queues.putIfAbsent(endPoint, queue);
+		}
+		return queue;
+	}
+
+	/**
+	 * Send a text message with a pooled session
+	 * @param destinationEndPoint the destination
+	 * @param msgText the message
+	 * @throws JMSException if the message could not be sent
+	 */
+	public void send(String destinationEndPoint, String msgText) throws JMSException {
+		PooledSession session = borrow();
+		try {
+			session.send(destinationEndPoint, msgText);
+		} catch (JMSException e) {
+			session.close();
+			throw e;
+		}
+		release(session);
+	}
+
+	private PooledSession borrow() throws JMSException {
+		PooledSession session;
+		while ((session = idleSessions.poll()) != null) {
+			idleCount.decrementAndGet();
+			if (isOpen(session.connection))
+				return session;
+			session.close();
+		}
+		return new PooledSession(getConnection(), false);
+	}
+
+	private void release(PooledSession session) {
+		if (idleCount.incrementAndGet() <= maxIdleSessions) {
+			idleSessions.add(session);
+		} else {
+			idleCount.decrementAndGet();
+			session.close();
+		}
+	}
+
+	/**
+	 * Send a text message in the background, in a batch with the messages sent meanwhile
+	 * @param destinationEndPoint the destination
+	 * @param msgText the message
+	 */
+	public void sendInBackground(String destinationEndPoint, String msgText) {
+		synchronized (this) {
+			if (backgroundSender == null) {
+				backgroundSender = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						sendBatches();
+					}
+				}, "jms-sender");
+				backgroundSender.setDaemon(true);
+				backgroundSender.start();
+			}
+		}
+		outgoing.add(new Outgoing(destinationEndPoint, msgText));
+	}
+
+	private void sendBatches() {
+		List<Outgoing> batch = new ArrayList<>();
+		PooledSession session = null;
+		while (true) {
+			try {
+				batch.add(outgoing.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			outgoing.drainTo(batch, batchSize - 1);
+			for (int attempt = 1; ; attempt++) {
+				try {
+					if (session == null || !isOpen(session.connection))
+						session = new PooledSession(getConnection(), true);
+					for (Outgoing message : batch)
+						session.send(message.destinationEndPoint, message.msgText);
+					session.session.commit();
+					break;
+				} catch (JMSException e) {
+					// Nothing of the batch was committed, so it is sent again whole on a fresh session
+					if (session != null)
+						session.close();
+					session = null;
+					if (attempt == SEND_ATTEMPTS) {
+						droppedMessages.addAndGet(batch.size());
+						e.printStackTrace();
+						break;
+					}
+				}
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Set the max number of messages sent in the background and committed at once
+	 * @param batchSize the batch size
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Return the max number of messages sent in the background and committed at once
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Return the number of messages waiting to be sent in the background
+	 * @return the number of messages
+	 */
+	public int getPendingMessages() {
+		return outgoing.size();
+	}
+
+	/**
+	 * Return the number of messages sent in the background that were dropped, as their batch
+	 * failed on every attempt
+	 * @return the number of messages
+	 */
+	public long getDroppedMessages() {
+		return droppedMessages.get();
+	}
+}
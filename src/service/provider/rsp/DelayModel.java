@@ -0,0 +1,17 @@
+package service.provider.rsp;
+
+import java.util.Random;
+
+/**
+ * 
+ * Distribution of the simulated delay of messages
+ */
+public interface DelayModel {
+
+    /**
+     * Draw the delay of a message
+     * @param random the source of randomness
+     * @return the delay in logical time units, see {@link service.utility.Time}
+     */
+    double nextDelay(Random random);
+}
@@ -0,0 +1,35 @@
+package service.provider.rsp;
+
+import java.util.Random;
+
+/**
+ * 
+ * Exponentially distributed delay, mostly short with a long tail
+ */
+public class ExponentialDelay implements DelayModel {
+
+    private final double meanDelay;
+
+    /**
+     * Constructor
+     * @param meanDelay the mean delay
+     */
+    public ExponentialDelay(double meanDelay) {
+    	if (meanDelay < 0)
+    		throw new IllegalArgumentException("Invalid mean delay: " + meanDelay);
+    	this.meanDelay = meanDelay;
+    }
+
+    @Override
+    public double nextDelay(Random random) {
+    	return -meanDelay * Math.log(1 - random.nextDouble());
+    }
+
+    /**
+     * Return the mean delay
+     * @return the mean delay
+     */
+    public double getMeanDelay() {
+    	return meanDelay;
+    }
+}
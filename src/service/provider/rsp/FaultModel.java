@@ -0,0 +1,70 @@
+package service.provider.rsp;
+
+/**
+ * 
+ * Simulated faults of the messages over a link: loss and delay
+ */
+public class FaultModel {
+
+    /**
+     * No faults
+     */
+    public static final FaultModel NONE = new FaultModel(0, null);
+
+    private final int messageLoss;
+    private final DelayModel delayModel;
+
+    /**
+     * Constructor
+     * @param messageLoss the percentage of messages lost, exactly that many of every hundred
+     * @param delayModel the distribution of the delay, null for no delay
+     */
+    public FaultModel(int messageLoss, DelayModel delayModel) {
+    	if (messageLoss < 0 || messageLoss > 100)
+    		throw new IllegalArgumentException("Invalid message loss: " + messageLoss);
+    	this.messageLoss = messageLoss;
+    	this.delayModel = delayModel;
+    }
+
+    /**
+     * Return the message loss
+     * @return the percentage of messages lost
+     */
+    public int getMessageLoss() {
+    	return messageLoss;
+    }
+
+    /**
+     * Return the distribution of the delay
+     * @return the delay model, null for no delay
+     */
+    public DelayModel getDelayModel() {
+    	return delayModel;
+    }
+
+    /**
+     * Return a copy with another message loss
+     * @param messageLoss the percentage of messages lost
+     * @return the new fault model
+     */
+    public FaultModel withMessageLoss(int messageLoss) {
+    	return new FaultModel(messageLoss, delayModel);
+    }
+
+    /**
+     * Return a copy with another delay
+     * @param delayModel the distribution of the delay, null for no delay
+     * @return the new fault model
+     */
+    public FaultModel withDelayModel(DelayModel delayModel) {
+    	return new FaultModel(messageLoss, delayModel);
+    }
+
+    /**
+     * Check whether messages are neither lost nor delayed
+     * @return true if there are no faults
+     */
+    public boolean isNone() {
+    	return messageLoss == 0 && delayModel == null;
+    }
+}
@@ -0,0 +1,56 @@
+package service.provider.rsp;
+
+import java.util.Random;
+
+/**
+ * 
+ * Log-normally distributed delay, as measured on real networks
+ */
+public class LogNormalDelay implements DelayModel {
+
+    private final double mu, sigma;
+
+    /**
+     * Constructor
+     * @param mu the mean of the logarithm of the delay
+     * @param sigma the standard deviation of the logarithm of the delay
+     */
+    public LogNormalDelay(double mu, double sigma) {
+    	if (sigma < 0)
+    		throw new IllegalArgumentException("Invalid standard deviation: " + sigma);
+    	this.mu = mu;
+    	this.sigma = sigma;
+    }
+
+    /**
+     * Create a log-normal delay with the given median and 95th percentile
+     * @param median the median delay
+     * @param percentile95 the delay that 95% of the messages stay below
+     * @return the delay model
+     */
+    public static LogNormalDelay fromPercentiles(double median, double percentile95) {
+    	double mu = Math.log(median);
+    	return new LogNormalDelay(mu, (Math.log(percentile95) - mu) / 1.6448536269514722);
+    }
+
+    @Override
+    public double nextDelay(Random random) {
+    	return Math.exp(mu + sigma * random.nextGaussian());
+    }
+
+    /**
+     * Return the mean of the logarithm of the delay
+     * @return the mean
+     */
+    public double getMu() {
+    	return mu;
+    }
+
+    /**
+     * Return the standard deviation of the logarithm of the delay
+     * @return the standard deviation
+     */
+    public double getSigma() {
+    	return sigma;
+    }
+}
@@ -0,0 +1,24 @@
+package service.provider.rsp;
+
+/**
+ * 
+ * What {@link RSPMessagingService} does with a message for an endpoint whose mailbox is full
+ */
+public enum MailboxPolicy {
+
+    /**
+     * Wait until the endpoint has taken a message
+     */
+    BLOCK,
+
+    /**
+     * Discard the message, as a lost message
+     */
+    DROP,
+
+    /**
+     * Discard the message and answer a request at once with a TimeOutError,
+     * so the sender can retry without waiting for its timeout
+     */
+    FAIL_FAST
+}
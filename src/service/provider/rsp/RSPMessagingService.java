@@ -1,16 +1,40 @@
 package service.provider.rsp;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import service.auxiliary.AbstractMessage;
+import service.auxiliary.MessageCodec;
+import service.auxiliary.Request;
+import service.auxiliary.Response;
+import service.auxiliary.TimeOutError;
+import service.auxiliary.XMLCodec;
 import service.provider.MessageReceiver;
 import service.utility.Time;
+import service.utility.VirtualThreads;
 
 /**
  * 
  * Definition of a service for handling all messages
+ *
+ * Every endpoint has a bounded mailbox. The messages of a mailbox are delivered one at a time,
+ * in the order they arrived, by a worker pool shared by all endpoints.
+ * When a mailbox is full, its {@link MailboxPolicy} applies. With {@link MailboxPolicy#BLOCK},
+ * a receiver that sends from {@link MessageReceiver#onMessage} to a full mailbox blocks a worker,
+ * so receivers should hand long work to their own threads, as services do.
  */
 public class RSPMessagingService {
     
@@ -28,84 +52,605 @@ public class RSPMessagingService {
     	return instance;
     }
 
-    private HashMap<String, MessageReceiver> queue = new HashMap<>();
+    /**
+     * Messages a worker delivers from one mailbox before it lets other mailboxes go first
+     */
+    private static final int DRAIN_BATCH = 64;
+
+    private static final MessageCodec replyCodec = new XMLCodec();
+
+    /**
+     * Routing table, from endpoint to its mailbox
+     */
+    private final ConcurrentHashMap<String, Mailbox> routes = new ConcurrentHashMap<>();
     
+    private final ThreadPoolExecutor workers;
+
+    /**
+     * Waits for full mailboxes of delayed messages, so the clock does not
+     */
     private ExecutorService threadPool = Executors.newCachedThreadPool();
+
+    /**
+     * Delivers messages instead of the pools above, if set
+     */
+    private volatile ExecutorService virtualThreads;
     
-    private int messageLoss, messageCount;
+    /**
+     * Faults of links without a fault model of their own
+     */
+    private volatile FaultModel faultModel = FaultModel.NONE;
     private int minDelay, maxDelay;
-    private Random random = new Random();
-    
+
     /**
-     * Register new message receiver to the queue
+     * Fault models of endpoints and groups of endpoints, e.g. "se.lnu.*"
+     */
+    private final ConcurrentHashMap<String, FaultModel> endpointFaults = new ConcurrentHashMap<>();
+
+    /**
+     * Fault models of links, from source and destination
+     */
+    private final ConcurrentHashMap<String, FaultModel> linkFaults = new ConcurrentHashMap<>();
+
+    /**
+     * Changed with the fault models, so links pick up the new ones
+     */
+    private volatile int faultsVersion;
+    private volatile Long randomSeed;
+
+    private volatile int mailboxCapacity = 10000;
+    private volatile MailboxPolicy mailboxPolicy = MailboxPolicy.BLOCK;
+
+    private RSPMessagingService() {
+    	int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+    	workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+    			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+    		private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "rsp-delivery-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+    	});
+    	workers.allowCoreThreadTimeOut(true);
+    	setVirtualThreads(Boolean.getBoolean("resep.virtual.threads"));
+    }
+
+    /**
+     * Messages waiting for one endpoint, with what is known about the endpoint
+     */
+    private class Mailbox implements Runnable {
+
+    	private final String endPoint;
+
+    	/**
+    	 * Whether messages from or to the endpoint are exempt from simulated loss and delay
+    	 */
+    	private final boolean reliable;
+
+    	/**
+    	 * Links from the senders to the endpoint, by sender
+    	 */
+    	private final ConcurrentHashMap<String, Link> links = new ConcurrentHashMap<>();
+
+    	private final MessageReceiver receiver;
+    	private final BlockingQueue<Object> messages;
+    	private final MailboxPolicy policy;
+
+    	/**
+    	 * Whether a worker is delivering or about to deliver the messages
+    	 */
+    	private final AtomicBoolean scheduled = new AtomicBoolean();
+    	private final AtomicLong rejected = new AtomicLong();
+
+    	Mailbox(String endPoint, MessageReceiver receiver, int capacity, MailboxPolicy policy) {
+    		this.endPoint = endPoint;
+    		this.reliable = isReliable(endPoint);
+    		this.receiver = receiver;
+    		this.messages = new ArrayBlockingQueue<Object>(capacity);
+    		this.policy = policy;
+    	}
+
+    	void schedule() {
+    		if (scheduled.compareAndSet(false, true)) {
+    			ExecutorService executor = virtualThreads;
+    			(executor != null ? executor : workers).execute(Time.track(this));
+    		}
+    	}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < DRAIN_BATCH; i++) {
+				Object message = messages.poll();
+				if (message == null)
+					break;
+				try {
+					if (message instanceof String)
+						receiver.onMessage((String) message);
+					else
+						receiver.onMessage((AbstractMessage) message);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			scheduled.set(false);
+			// Messages may have arrived after the last poll
+			if (!messages.isEmpty())
+				schedule();
+		}
+    }
+
+    /**
+     * Faults of the messages from one endpoint to another
+     */
+    private static class Link {
+
+    	private final FaultModel faults;
+    	private final int version;
+    	private final Random random;
+    	private final AtomicLong messages = new AtomicLong();
+
+    	Link(FaultModel faults, int version, Random random) {
+    		this.faults = faults;
+    		this.version = version;
+    		this.random = random;
+    	}
+
+    	/**
+    	 * Count a message, losing exactly the configured percentage of them
+    	 * @return true if the message is lost
+    	 */
+    	boolean lose() {
+    		int loss = faults.getMessageLoss();
+    		if (loss == 0)
+    			return false;
+    		long count = messages.incrementAndGet();
+    		return count * loss / 100 != (count - 1) * loss / 100;
+    	}
+
+    	/**
+    	 * Draw the delay of a message
+    	 * @return the delay in nanoseconds
+    	 */
+    	long nextDelay() {
+    		DelayModel delayModel = faults.getDelayModel();
+    		return delayModel == null ? 0 : (long) (delayModel.nextDelay(random) * Time.scale * 1000000);
+    	}
+    }
+
+    /**
+     * Register new message receiver to the queue, with the default mailbox
      * @param endPoint the service endpoint
      * @param messageReceiver the message receiver for incoming messages
      */
     public void register(String endPoint, MessageReceiver messageReceiver) {
-    	queue.put(endPoint, messageReceiver);
+    	register(endPoint, messageReceiver, mailboxCapacity, mailboxPolicy);
+    }
+
+    /**
+     * Register new message receiver to the queue
+     * @param endPoint the service endpoint
+     * @param messageReceiver the message receiver for incoming messages
+     * @param capacity the max number of messages waiting for the receiver
+     * @param policy what to do with messages when the mailbox is full
+     */
+    public void register(String endPoint, MessageReceiver messageReceiver, int capacity, MailboxPolicy policy) {
+    	endPoint = endPoint.intern();
+    	routes.put(endPoint, new Mailbox(endPoint, messageReceiver, capacity, policy));
     }
 
     /**
-     * Deregister from the queue with the endpoint
+     * Deregister from the queue with the endpoint, messages still waiting for it are dropped
      * @param endPoint the service endpoint
      */
     public void deregister(String endPoint) {
-    	queue.remove(endPoint);
+    	routes.remove(endPoint);
+    }
+
+    /**
+     * Check whether a receiver is registered with an endpoint
+     * @param endPoint the service endpoint
+     * @return true if the endpoint is registered
+     */
+    public boolean isRegistered(String endPoint) {
+    	return routes.containsKey(endPoint);
     }
     
+    private volatile boolean serializeMessages;
+
     /**
      * Responsible for sending messages to the target endpoint
      * @param endPoint   the source 
      * @param destinationEndPoint  the destination
      * @param msgText    the message information
      */
-    public void sendMessage(String endPoint, String destinationEndPoint, String msgText) {
-		threadPool.submit(new Runnable() {
+    public void sendMessage(final String endPoint, final String destinationEndPoint, final String msgText) {
+    	send(endPoint, destinationEndPoint, msgText);
+    }
+
+    /**
+     * Hand a message to the target endpoint without encoding it
+     * @param endPoint   the source 
+     * @param destinationEndPoint  the destination
+     * @param message    the message, not shared with the sender
+     */
+    public void sendMessage(final String endPoint, final String destinationEndPoint, final AbstractMessage message) {
+    	send(endPoint, destinationEndPoint, message);
+    }
+
+    /**
+     * Check whether messages from or to an endpoint are exempt from simulated loss and delay:
+     * clients and the registry
+     */
+    private static boolean isReliable(String endPoint) {
+    	return endPoint.contains(".#CLIENT#.") || endPoint.endsWith(".registry");
+    }
+
+    /**
+     * Apply the simulated message loss and delay, then put the message in the mailbox
+     * @param message the message text or object
+     */
+    private void send(final String endPoint, final String destinationEndPoint, final Object message) {
+    	final Mailbox destination = routes.get(destinationEndPoint);
+    	if (destination == null)
+    		return;
+    	Mailbox source = routes.get(endPoint);
+    	Link link = destination.links.get(endPoint);
+    	if (link == null || link.version != faultsVersion)
+    		link = createLink(endPoint, source, destination);
+		if (link.faults.isNone()) {
+			deliver(source, destination, message);
+			return;
+		}
+
+		if (link.lose())
+			return;
+
+		long delay = link.nextDelay();
+		if (delay <= 0) {
+			deliver(source, destination, message);
+			return;
+		}
+		// Held by the clock until due, see Time
+		Time.schedule(new Runnable() {
 			@Override
 			public void run() {
-				if (!(endPoint.contains(".#CLIENT#.")
-						|| destinationEndPoint.contains(".#CLIENT#.")
-						|| endPoint.endsWith(".registry") || destinationEndPoint
-						.endsWith(".registry"))) {
-					if (messageLoss > 0) {
-						if (100 / messageLoss == messageCount) {
-							messageCount = 0;
-							return;
-						} else {
-							messageCount++;
-						}
-					}
-
-					if (minDelay + maxDelay != 0) {
-						try {
-							Thread.sleep(random.nextInt((maxDelay - minDelay + 1)+ minDelay)* Time.scale);
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						}
-					}
+				deliverLater(endPoint, destination, message);
+			}
+		}, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Look up the fault model of a link: the one of the link, else of the destination,
+     * else of the source, else the default unless an endpoint is a client or the registry
+     */
+    private Link createLink(String endPoint, Mailbox source, Mailbox destination) {
+    	int version = faultsVersion;
+    	String name = endPoint + " -> " + destination.endPoint;
+    	FaultModel faults = linkFaults.get(name);
+    	if (faults == null)
+    		faults = getEndpointFaults(destination.endPoint);
+    	if (faults == null)
+    		faults = getEndpointFaults(endPoint);
+    	if (faults == null) {
+    		boolean reliable = destination.reliable || (source != null ? source.reliable : isReliable(endPoint));
+    		faults = reliable ? FaultModel.NONE : faultModel;
+    	}
+    	Long seed = randomSeed;
+    	// Each link draws its own numbers, whatever happens on other links
+    	Random random = seed == null ? new Random() : new Random(seed * 31 + name.hashCode());
+    	Link link = new Link(faults, version, random);
+    	while (true) {
+    		// Senders racing to create the link must share one counter
+    		Link existing = destination.links.get(endPoint);
+    		if (existing != null && existing.version >= version)
+    			return existing;
+    		if (existing == null ? destination.links.putIfAbsent(endPoint, link) == null
+    				: destination.links.replace(endPoint, existing, link))
+    			return link;
+    	}
+    }
+
+    private FaultModel getEndpointFaults(String endPoint) {
+    	FaultModel faults = endpointFaults.get(endPoint);
+    	if (faults != null)
+    		return faults;
+    	int longest = -1;
+    	for (Map.Entry<String, FaultModel> entry : endpointFaults.entrySet()) {
+    		String group = entry.getKey();
+    		if (group.endsWith("*") && group.length() > longest
+    				&& endPoint.startsWith(group.substring(0, group.length() - 1))) {
+    			faults = entry.getValue();
+    			longest = group.length();
+    		}
+    	}
+    	return faults;
+    }
 
+    /**
+     * Deliver a message that is due without blocking the clock
+     */
+    private void deliverLater(String endPoint, final Mailbox destination, final Object message) {
+    	if (routes.get(destination.endPoint) != destination) {
+    		// Deregistered while the message was in transit
+    		return;
+    	}
+    	final Mailbox source = routes.get(endPoint);
+    	if (destination.policy != MailboxPolicy.BLOCK) {
+    		deliver(source, destination, message);
+    	} else if (destination.messages.offer(message)) {
+    		destination.schedule();
+    	} else {
+    		ExecutorService executor = virtualThreads;
+    		(executor != null ? executor : threadPool).execute(Time.track(new Runnable() {
+				@Override
+				public void run() {
+					deliver(source, destination, message);
 				}
-				queue.get(destinationEndPoint).onMessage(msgText);
-			}
-		});
+    		}));
+    	}
     }
-    
+
+    /**
+     * Put a message in the mailbox of its destination
+     * @param source the mailbox of the sender, null if it is not registered
+     * @param destination the mailbox of the destination
+     * @param message the message text or object
+     */
+    private void deliver(Mailbox source, Mailbox destination, Object message) {
+    	if (!destination.messages.offer(message)) {
+    		switch (destination.policy) {
+    		case BLOCK:
+    			try {
+    				destination.messages.put(message);
+    			} catch (InterruptedException e) {
+    				Thread.currentThread().interrupt();
+    				destination.rejected.incrementAndGet();
+    				return;
+    			}
+    			break;
+    		case FAIL_FAST:
+    			destination.rejected.incrementAndGet();
+    			reject(source, destination, message);
+    			return;
+    		default:
+    			destination.rejected.incrementAndGet();
+    			return;
+    		}
+    	}
+    	destination.schedule();
+    }
+
+    /**
+     * Answer a request that did not fit in the mailbox with a TimeOutError
+     */
+    private void reject(Mailbox source, Mailbox destination, Object message) {
+    	if (source == null)
+    		return;
+    	Object decoded;
+    	try {
+    		decoded = message instanceof String ? replyCodec.decode((String) message) : message;
+    	} catch (RuntimeException e) {
+    		return;
+    	}
+    	if (!(decoded instanceof Request))
+    		return;
+    	Response response = new Response(0, ((Request) decoded).getId(), destination.endPoint, new TimeOutError());
+    	// Never wait for the sender, it may be waiting for us
+    	if (source.messages.offer(response))
+    		source.schedule();
+    	else
+    		source.rejected.incrementAndGet();
+    }
+
+    /**
+     * Return the number of messages waiting for an endpoint
+     * @param endPoint the endpoint
+     * @return the number of messages, 0 if the endpoint is not registered
+     */
+    public int getQueueDepth(String endPoint) {
+    	Mailbox mailbox = routes.get(endPoint);
+    	return mailbox == null ? 0 : mailbox.messages.size();
+    }
+
+    /**
+     * Return the number of messages waiting for each endpoint
+     * @return the endpoints with their number of messages
+     */
+    public Map<String, Integer> getQueueDepths() {
+    	Map<String, Integer> depths = new HashMap<>();
+    	for (Map.Entry<String, Mailbox> entry : routes.entrySet())
+    		depths.put(entry.getKey(), entry.getValue().messages.size());
+    	return depths;
+    }
+
+    /**
+     * Return the number of messages for an endpoint dropped or failed because its mailbox was full
+     * @param endPoint the endpoint
+     * @return the number of rejected messages, 0 if the endpoint is not registered
+     */
+    public long getRejectedMessages(String endPoint) {
+    	Mailbox mailbox = routes.get(endPoint);
+    	return mailbox == null ? 0 : mailbox.rejected.get();
+    }
+
+    /**
+     * Set the mailbox of endpoints registered from now on
+     * @param capacity the max number of messages waiting for an endpoint
+     * @param policy what to do with messages when the mailbox is full
+     */
+    public void setMailbox(int capacity, MailboxPolicy policy) {
+    	if (capacity < 1)
+    		throw new IllegalArgumentException("Mailbox capacity must be positive: " + capacity);
+    	this.mailboxCapacity = capacity;
+    	this.mailboxPolicy = policy;
+    }
+
+    /**
+     * Return the capacity of mailboxes of new endpoints
+     * @return the max number of messages waiting for an endpoint
+     */
+    public int getMailboxCapacity() {
+    	return mailboxCapacity;
+    }
+
+    /**
+     * Return the policy of mailboxes of new endpoints
+     * @return what to do with messages when the mailbox is full
+     */
+    public MailboxPolicy getMailboxPolicy() {
+    	return mailboxPolicy;
+    }
+
+    /**
+     * Deliver messages on virtual threads, when the JVM has them,
+     * so receivers blocking in {@link MessageReceiver#onMessage} do not hold up other endpoints.
+     * The system property <code>resep.virtual.threads</code> sets the default.
+     * @param enabled true to use virtual threads
+     */
+    public synchronized void setVirtualThreads(boolean enabled) {
+    	if (enabled && virtualThreads == null)
+    		virtualThreads = VirtualThreads.newExecutor();
+    	else if (!enabled)
+    		virtualThreads = null;
+    }
+
     /**
-     * Set the message delay
+     * Check whether messages are delivered on virtual threads
+     * @return true if virtual threads are used
+     */
+    public boolean isVirtualThreads() {
+    	return virtualThreads != null;
+    }
+
+    /**
+     * Set the number of workers delivering messages of all endpoints
+     * @param threads the number of workers
+     */
+    public void setDeliveryThreads(int threads) {
+    	if (threads > workers.getMaximumPoolSize()) {
+    		workers.setMaximumPoolSize(threads);
+    		workers.setCorePoolSize(threads);
+    	} else {
+    		workers.setCorePoolSize(threads);
+    		workers.setMaximumPoolSize(threads);
+    	}
+    }
+
+    /**
+     * Check whether messages between services are encoded and decoded
+     * @return true if every message goes through the message codec
+     */
+    public boolean isSerializeMessages() {
+    	return serializeMessages;
+    }
+
+    /**
+     * Encode and decode every message as a remote provider would, e.g. to test that
+     * all values survive the message codec. By default messages are handed over as objects.
+     * @param serializeMessages true to encode messages
+     */
+    public void setSerializeMessages(boolean serializeMessages) {
+    	this.serializeMessages = serializeMessages;
+    }
+
+    /**
+     * Seed the random numbers of the message delay, so a simulation can be repeated.
+     * Each link draws from its own numbers, seeded with this seed and the names of its endpoints.
+     * @param seed the seed
+     */
+    public synchronized void setRandomSeed(long seed) {
+    	this.randomSeed = seed;
+    	faultsVersion++;
+    }
+
+    /**
+     * Set the faults of links without a fault model of their own, except those from or to
+     * clients and the registry
+     * @param faultModel the new fault model
+     */
+    public synchronized void setFaultModel(FaultModel faultModel) {
+    	DelayModel delayModel = faultModel.getDelayModel();
+    	if (delayModel instanceof UniformDelay) {
+    		this.minDelay = ((UniformDelay) delayModel).getMinDelay();
+    		this.maxDelay = ((UniformDelay) delayModel).getMaxDelay();
+    	} else {
+    		this.minDelay = 0;
+    		this.maxDelay = 0;
+    	}
+    	this.faultModel = faultModel;
+    	faultsVersion++;
+    }
+
+    /**
+     * Return the faults of links without a fault model of their own
+     * @return the fault model
+     */
+    public FaultModel getFaultModel() {
+    	return faultModel;
+    }
+
+    /**
+     * Set the faults of all links from and to an endpoint or a group of endpoints
+     * @param endPoint the endpoint, or the common prefix of a group followed by *
+     * @param faultModel the new fault model, null to remove it
+     */
+    public synchronized void setFaultModel(String endPoint, FaultModel faultModel) {
+    	if (faultModel == null)
+    		endpointFaults.remove(endPoint);
+    	else
+    		endpointFaults.put(endPoint, faultModel);
+    	faultsVersion++;
+    }
+
+    /**
+     * Set the faults of the messages from one endpoint to another
+     * @param endPoint the source
+     * @param destinationEndPoint the destination
+     * @param faultModel the new fault model, null to remove it
+     */
+    public synchronized void setFaultModel(String endPoint, String destinationEndPoint, FaultModel faultModel) {
+    	String name = endPoint + " -> " + destinationEndPoint;
+    	if (faultModel == null)
+    		linkFaults.remove(name);
+    	else
+    		linkFaults.put(name, faultModel);
+    	faultsVersion++;
+    }
+
+    /**
+     * Set the message delay of links without a fault model of their own, uniformly distributed
      * @param minDelay the new minimum message delay
      * @param maxDelay the new maxmum message delay
      */
     public void setMessageDelay(int minDelay, int maxDelay) {
-    	this.minDelay = minDelay;
-    	this.maxDelay = maxDelay;
+    	setDelayModel(minDelay + maxDelay == 0 ? null : new UniformDelay(minDelay, maxDelay));
+    }
+
+    /**
+     * Set the distribution of the message delay of links without a fault model of their own
+     * @param delayModel the new delay model, null for no delay
+     */
+    public synchronized void setDelayModel(DelayModel delayModel) {
+    	setFaultModel(faultModel.withDelayModel(delayModel));
+    }
+
+    /**
+     * Return the distribution of the message delay of links without a fault model of their own
+     * @return the delay model, null for no delay
+     */
+    public DelayModel getDelayModel() {
+    	return faultModel.getDelayModel();
     }
     
     /**
-     * Set the message loss
+     * Set the message loss of links without a fault model of their own
      * @param messageLoss the new message loss
      */
-    public void setMessageLoss(int messageLoss) {
-    	this.messageLoss = messageLoss;
+    public synchronized void setMessageLoss(int messageLoss) {
+    	setFaultModel(faultModel.withMessageLoss(messageLoss));
     }
     
     /**
@@ -113,7 +658,7 @@ public class RSPMessagingService {
      * @return the message loss
      */
     public int getMessageLoss(){
-    	return this.messageLoss;
+    	return faultModel.getMessageLoss();
     }
     
     /**
@@ -1,7 +1,11 @@
 package service.provider.rsp;
 
+import service.auxiliary.AbstractMessage;
+import service.auxiliary.MessageCodec;
+import service.auxiliary.MessageCopier;
 import service.provider.MessageReceiver;
 import service.provider.ServiceProvider;
+import service.provider.ServiceProviderFactory;
 
 /**
  * 
@@ -13,6 +17,7 @@ public class RSPServiceProvider implements ServiceProvider {
     private RSPMessagingService rspMessagingService;
     private String endPoint;
     private MessageReceiver messageReceiver;
+    private MessageCodec messageCodec = ServiceProviderFactory.getMessageCodec();
    
     /**
      * Constructor
@@ -38,4 +43,27 @@ public class RSPServiceProvider implements ServiceProvider {
     	rspMessagingService.sendMessage(endPoint, destinationEndPoint, msgText);
     }
 
+    @Override
+    public void sendMessage(AbstractMessage message, String destinationEndPoint) {
+		if (rspMessagingService.isSerializeMessages()) {
+			sendMessage(messageCodec.encode(message), destinationEndPoint);
+		} else {
+			// Copied now, as encoding would, so later changes by the sender are not seen
+			rspMessagingService.sendMessage(endPoint, destinationEndPoint, MessageCopier.copy(message));
+		}
+    }
+
+    @Override
+    public MessageCodec getMessageCodec() {
+    	return messageCodec;
+    }
+
+    /**
+     * Set the codec for the messages sent through this provider
+     * @param messageCodec the new message codec
+     */
+    public void setMessageCodec(MessageCodec messageCodec) {
+    	this.messageCodec = messageCodec;
+    }
+
 }
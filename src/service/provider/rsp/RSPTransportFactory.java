@@ -0,0 +1,30 @@
+package service.provider.rsp;
+
+import service.provider.ServiceProvider;
+import service.provider.TransportFactory;
+
+/**
+ * The transport between services in the same JVM, see {@link RSPServiceProvider}
+ */
+public class RSPTransportFactory implements TransportFactory {
+
+    @Override
+    public String getName() {
+    	return "rsp";
+    }
+
+    @Override
+    public Locality getLocality() {
+    	return Locality.JVM;
+    }
+
+    @Override
+    public boolean canReach(String endPoint) {
+    	return RSPMessagingService.getInstance().isRegistered(endPoint);
+    }
+
+    @Override
+    public ServiceProvider createServiceProvider() {
+    	return new RSPServiceProvider();
+    }
+}
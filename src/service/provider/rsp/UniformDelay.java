@@ -0,0 +1,45 @@
+package service.provider.rsp;
+
+import java.util.Random;
+
+/**
+ * 
+ * Delay of a whole number of time units, each from min to max equally likely
+ */
+public class UniformDelay implements DelayModel {
+
+    private final int minDelay, maxDelay;
+
+    /**
+     * Constructor
+     * @param minDelay the minimum delay
+     * @param maxDelay the maximum delay
+     */
+    public UniformDelay(int minDelay, int maxDelay) {
+    	if (minDelay < 0 || maxDelay < minDelay)
+    		throw new IllegalArgumentException("Invalid delay range: " + minDelay + ".." + maxDelay);
+    	this.minDelay = minDelay;
+    	this.maxDelay = maxDelay;
+    }
+
+    @Override
+    public double nextDelay(Random random) {
+    	return minDelay + random.nextInt(maxDelay - minDelay + 1);
+    }
+
+    /**
+     * Return the minimum delay
+     * @return the minimum delay
+     */
+    public int getMinDelay() {
+    	return minDelay;
+    }
+
+    /**
+     * Return the maximum delay
+     * @return the maximum delay
+     */
+    public int getMaxDelay() {
+    	return maxDelay;
+    }
+}
@@ -0,0 +1,368 @@
+package service.provider.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * The inbox of an endpoint: a ring buffer in a memory-mapped file, shared by processes
+ *
+ * Any number of senders, in any process, append records; the one listener of the endpoint
+ * removes them. Senders claim space by a compare-and-set of the tail, write the message,
+ * then publish its length. The listener reads published records in order, clears them and
+ * moves the head. Both indices only grow, so they never wrap. A record is its length plus
+ * one, then the message, padded to 8 bytes; a negative length skips the rest of the buffer.
+ * A waiting listener spins, then yields, then parks for growing periods. Senders in its
+ * own process wake it up at once. An inbox is closed before its file is deleted, so the
+ * processes that mapped it stop using it.
+ */
+class RingBuffer {
+
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	private static final int MAGIC = 0x52535052;
+
+	// Each index on its own cache line
+	private static final int MAGIC_OFFSET = 0;
+	private static final int CAPACITY_OFFSET = 4;
+	private static final int TAIL_OFFSET = 64;
+	private static final int HEAD_OFFSET = 128;
+	private static final int SLEEPING_OFFSET = 192;
+	private static final int LISTENER_OFFSET = 200;
+	private static final int DATA_OFFSET = 256;
+
+	/**
+	 * The listener of a closed inbox
+	 */
+	private static final long CLOSED = -1;
+
+	// Spinning only helps if the sender runs meanwhile
+	private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+	private static final int YIELDS = 100;
+	private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final String endPoint;
+	private final Object fileKey;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	private final int mask;
+
+	/**
+	 * The thread removing the messages, if in this process
+	 */
+	private volatile Thread listener;
+
+	private RingBuffer(String endPoint, Object fileKey, MappedByteBuffer buffer) {
+		this.endPoint = endPoint;
+		this.fileKey = fileKey;
+		this.buffer = buffer;
+		this.capacity = buffer.getInt(CAPACITY_OFFSET);
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Open the inbox of an endpoint
+	 * @param endPoint the endpoint
+	 * @param file the shared file
+	 * @param capacity the number of bytes for messages if the file is created, a power of two
+	 * @param create whether to create the file if it does not exist
+	 * @return the inbox, null if the file does not exist and is not created
+	 * @throws IOException if the file can not be mapped or is no inbox
+	 */
+	static RingBuffer open(String endPoint, File file, int capacity, boolean create) throws IOException {
+		if (!file.exists()) {
+			if (!create)
+				return null;
+			// Initialized aside and moved in place, so senders never see a partial header
+			File created = File.createTempFile(file.getName(), ".init", file.getParentFile());
+			try {
+				try (RandomAccessFile raf = new RandomAccessFile(created, "rw")) {
+					raf.setLength(DATA_OFFSET + capacity);
+					MappedByteBuffer header = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET);
+					header.order(ByteOrder.nativeOrder());
+					header.putInt(CAPACITY_OFFSET, capacity);
+					header.putInt(MAGIC_OFFSET, MAGIC);
+					header.force();
+				}
+				try {
+					Files.move(created.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(created.toPath(), file.toPath());
+				}
+			} catch (FileAlreadyExistsException e) {
+				// Created by another process meanwhile
+			} finally {
+				Files.deleteIfExists(created.toPath());
+			}
+		}
+		MappedByteBuffer buffer;
+		Object fileKey;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			if (raf.length() < DATA_OFFSET)
+				throw new IOException("Not an inbox: " + file);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+		}
+		buffer.order(ByteOrder.nativeOrder());
+		int size = buffer.getInt(CAPACITY_OFFSET);
+		if (buffer.getInt(MAGIC_OFFSET) != MAGIC || Integer.bitCount(size) != 1 || DATA_OFFSET + size != buffer.capacity())
+			throw new IOException("Not an inbox: " + file);
+		return new RingBuffer(endPoint, fileKey, buffer);
+	}
+
+	/**
+	 * Return the max size of a message
+	 * @return the size in bytes
+	 */
+	int getMaxMessageSize() {
+		return capacity / 2 - 8;
+	}
+
+	/**
+	 * Append a message, waiting while the inbox is full
+	 * @param message the message
+	 * @param timeoutNanos the max time to wait
+	 * @throws IOException if the message is too large or the inbox stayed full
+	 */
+	void offer(byte[] message, long timeoutNanos) throws IOException {
+		if (message.length > getMaxMessageSize())
+			throw new IOException("Message of " + message.length + " bytes too large for the inbox of " + endPoint);
+		int size = align(4 + message.length);
+		long deadline = 0;
+		int waits = 0;
+		while (true) {
+			long tail = (long) LONGS.getVolatile(buffer, TAIL_OFFSET);
+			long head = (long) LONGS.getVolatile(buffer, HEAD_OFFSET);
+			int offset = (int) (tail & mask);
+			int padding = offset + size > capacity ? capacity - offset : 0;
+			if (tail + padding + size - head > capacity) {
+				// Full
+				if (deadline == 0)
+					deadline = System.nanoTime() + timeoutNanos;
+				else if (System.nanoTime() - deadline > 0)
+					throw new IOException("The inbox of " + endPoint + " is full");
+				idle(waits++);
+				continue;
+			}
+			if (LONGS.compareAndSet(buffer, TAIL_OFFSET, tail, tail + padding + size)) {
+				if (padding > 0) {
+					INTS.setRelease(buffer, DATA_OFFSET + offset, -padding);
+					offset = 0;
+				}
+				ByteBuffer record = buffer.duplicate();
+				record.position(DATA_OFFSET + offset + 4);
+				record.put(message);
+				// Volatile, so the flag is read after the length is published: either the
+				// listener sees the message before it sleeps, or this sees it sleeping
+				INTS.setVolatile(buffer, DATA_OFFSET + offset, message.length + 1);
+				if ((int) INTS.getVolatile(buffer, SLEEPING_OFFSET) != 0) {
+					Thread thread = listener;
+					if (thread != null)
+						LockSupport.unpark(thread);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Remove the next message, waiting for one
+	 * @return the message, null if the listener was stopped
+	 */
+	byte[] take() {
+		Thread self = Thread.currentThread();
+		int waits = 0;
+		long parkNanos = MIN_PARK_NANOS;
+		while (listener == self) {
+			long head = (long) LONGS.getVolatile(buffer, HEAD_OFFSET);
+			int offset = (int) (head & mask);
+			int length = (int) INTS.getAcquire(buffer, DATA_OFFSET + offset);
+			if (length < 0) {
+				clear(offset, -length);
+				LONGS.setRelease(buffer, HEAD_OFFSET, head - length);
+				continue;
+			}
+			if (length > 0) {
+				byte[] message = new byte[length - 1];
+				ByteBuffer record = buffer.duplicate();
+				record.position(DATA_OFFSET + offset + 4);
+				record.get(message);
+				int size = align(4 + message.length);
+				clear(offset, size);
+				LONGS.setRelease(buffer, HEAD_OFFSET, head + size);
+				return message;
+			}
+			if (waits < SPINS + YIELDS) {
+				idle(waits++);
+				continue;
+			}
+			if (isClosed())
+				break;
+			INTS.setVolatile(buffer, SLEEPING_OFFSET, 1);
+			// A message published before the flag was seen is not missed
+			if ((int) INTS.getVolatile(buffer, DATA_OFFSET + offset) == 0) {
+				LockSupport.parkNanos(this, parkNanos);
+				parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+			}
+			INTS.setVolatile(buffer, SLEEPING_OFFSET, 0);
+			if ((int) INTS.getVolatile(buffer, DATA_OFFSET + offset) != 0) {
+				waits = 0;
+				parkNanos = MIN_PARK_NANOS;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Set the listener, which calls {@link #take()}, stopping the previous one of this process.
+	 * Only one process at a time listens, as only one may remove the messages.
+	 * @param thread the listener thread
+	 * @return false if the inbox is closed
+	 * @throws IOException if a live process other than this one listens
+	 */
+	boolean startListening(Thread thread) throws IOException {
+		long self = ProcessHandle.current().pid();
+		while (true) {
+			long pid = (long) LONGS.getVolatile(buffer, LISTENER_OFFSET);
+			if (pid == CLOSED)
+				return false;
+			if (pid != 0 && pid != self && isAlive(pid))
+				throw new IOException("Process " + pid + " already listens on " + endPoint);
+			if (LONGS.compareAndSet(buffer, LISTENER_OFFSET, pid, self))
+				break;
+		}
+		Thread previous = listener;
+		listener = thread;
+		if (previous != null)
+			LockSupport.unpark(previous);
+		return true;
+	}
+
+	/**
+	 * Stop the listener of this process
+	 */
+	void stopListening() {
+		Thread thread = listener;
+		listener = null;
+		// Leave a listener of another process alone
+		LONGS.compareAndSet(buffer, LISTENER_OFFSET, ProcessHandle.current().pid(), 0L);
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Close the inbox if a process listens on it, stopping the listener of this process
+	 * @param pid the listening process
+	 * @return true if closed
+	 */
+	boolean close(long pid) {
+		if (!LONGS.compareAndSet(buffer, LISTENER_OFFSET, pid, CLOSED))
+			return false;
+		Thread thread = listener;
+		listener = null;
+		if (thread != null)
+			LockSupport.unpark(thread);
+		return true;
+	}
+
+	/**
+	 * Close the inbox whatever process listens on it
+	 */
+	void close() {
+		long pid;
+		do {
+			pid = (long) LONGS.getVolatile(buffer, LISTENER_OFFSET);
+		} while (pid != CLOSED && !close(pid));
+	}
+
+	/**
+	 * Close the inbox if the process listening on it is gone
+	 * @return true if closed
+	 */
+	boolean closeIfAbandoned() {
+		long pid = (long) LONGS.getVolatile(buffer, LISTENER_OFFSET);
+		return pid > 0 && !isAlive(pid) && close(pid);
+	}
+
+	/**
+	 * Check whether the inbox is closed, its file deleted or about to be
+	 * @return true if closed
+	 */
+	boolean isClosed() {
+		return (long) LONGS.getVolatile(buffer, LISTENER_OFFSET) == CLOSED;
+	}
+
+	/**
+	 * Check whether a file is the one of this inbox, not one created since
+	 * @param file the file of the endpoint
+	 * @return true if the same file
+	 */
+	boolean isFile(File file) {
+		try {
+			return Objects.equals(fileKey, Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Check whether a live process listens on the endpoint
+	 * @return true if a process listens
+	 */
+	boolean isListened() {
+		long pid = (long) LONGS.getVolatile(buffer, LISTENER_OFFSET);
+		return pid > 0 && isAlive(pid);
+	}
+
+	private static boolean isAlive(long pid) {
+		Optional<ProcessHandle> process = ProcessHandle.of(pid);
+		return process.isPresent() && process.get().isAlive();
+	}
+
+	/**
+	 * Return the number of bytes of messages not yet removed
+	 * @return the number of bytes
+	 */
+	long getPendingBytes() {
+		return (long) LONGS.getVolatile(buffer, TAIL_OFFSET) - (long) LONGS.getVolatile(buffer, HEAD_OFFSET);
+	}
+
+	/**
+	 * Zero a removed record, so any of its bytes can be the length of a later one
+	 */
+	private void clear(int offset, int size) {
+		for (int i = 0; i < size; i += 8)
+			buffer.putLong(DATA_OFFSET + offset + i, 0L);
+	}
+
+	private static void idle(int waits) {
+		if (waits < SPINS)
+			Thread.onSpinWait();
+		else if (waits < SPINS + YIELDS)
+			Thread.yield();
+		else
+			LockSupport.parkNanos(MIN_PARK_NANOS);
+	}
+
+	private static int align(int size) {
+		return (size + 7) & ~7;
+	}
+}
@@ -0,0 +1,72 @@
+package service.provider.shm;
+
+import java.io.IOException;
+
+import service.auxiliary.MessageCodec;
+import service.provider.MessageReceiver;
+import service.provider.ServiceProvider;
+import service.provider.ServiceProviderFactory;
+
+/**
+ *
+ * A service provider sending messages to processes on the same host through shared memory,
+ * see {@link SharedMemoryTransport}
+ */
+public class SharedMemoryServiceProvider implements ServiceProvider {
+
+    private final SharedMemoryTransport transport;
+    private String endPoint;
+    private MessageCodec messageCodec = ServiceProviderFactory.getMessageCodec();
+
+    /**
+     * Constructor, for the transport shared by default
+     */
+    public SharedMemoryServiceProvider() {
+    	this(SharedMemoryTransport.getInstance());
+    }
+
+    /**
+     * Constructor
+     * @param transport the transport
+     */
+    public SharedMemoryServiceProvider(SharedMemoryTransport transport) {
+    	this.transport = transport;
+    }
+
+    @Override
+    public void startListening(String endPoint, MessageReceiver messageReceiver) {
+    	this.endPoint = endPoint;
+    	try {
+    		transport.register(endPoint, messageReceiver);
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
+    }
+
+    @Override
+    public void stopListening() {
+    	transport.deregister(endPoint);
+    }
+
+    @Override
+    public void sendMessage(String msgText, String destinationEndPoint) {
+    	try {
+    		transport.send(destinationEndPoint, msgText);
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
+    }
+
+    @Override
+    public MessageCodec getMessageCodec() {
+    	return messageCodec;
+    }
+
+    /**
+     * Set the codec for the messages sent through this provider
+     * @param messageCodec the new message codec
+     */
+    public void setMessageCodec(MessageCodec messageCodec) {
+    	this.messageCodec = messageCodec;
+    }
+}
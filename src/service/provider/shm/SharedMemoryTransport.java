@@ -0,0 +1,276 @@
+package service.provider.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import service.provider.MessageReceiver;
+
+/**
+ *
+ * Messages between processes on one host through shared memory
+ *
+ * Each endpoint has an inbox, a {@link RingBuffer} in its own file of a directory shared by
+ * the processes, by default under /dev/shm. Senders write into the inbox of the destination
+ * and its listener thread delivers the messages in order. No message goes through the
+ * kernel once the files are mapped. An inbox lives as long as its listener: it is deleted,
+ * with the messages left in it, when the listener stops or its process exits. The inboxes
+ * of processes that died are deleted by the next transport created on the directory.
+ */
+public class SharedMemoryTransport {
+
+	private static SharedMemoryTransport defaultTransport;
+
+	/**
+	 * Return the transport shared by default, in the directory "resep.shm.dir" with inboxes of
+	 * "resep.shm.capacity" bytes
+	 * @return the transport
+	 */
+	public static synchronized SharedMemoryTransport getInstance() {
+		if (defaultTransport == null) {
+			File dir = new File(System.getProperty("resep.shm.dir", new File("/dev/shm").isDirectory()
+					? "/dev/shm/resep" : new File(System.getProperty("java.io.tmpdir"), "resep-shm").getPath()));
+			defaultTransport = new SharedMemoryTransport(dir, Integer.getInteger("resep.shm.capacity", 1 << 20));
+		}
+		return defaultTransport;
+	}
+
+	private static final long PID = ProcessHandle.current().pid();
+
+	private final File dir;
+	private final int capacity;
+	private volatile long sendTimeoutNanos = TimeUnit.SECONDS.toNanos(1);
+	private final AtomicBoolean deleteOnExit = new AtomicBoolean();
+
+	/**
+	 * The inboxes mapped by this process, by endpoint
+	 */
+	private final ConcurrentHashMap<String, RingBuffer> inboxes = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor
+	 * @param dir the directory of the inboxes
+	 * @param capacity the size of the inboxes created, in bytes, rounded up to a power of two
+	 */
+	public SharedMemoryTransport(File dir, int capacity) {
+		if (capacity < 1024)
+			throw new IllegalArgumentException("Invalid inbox capacity: " + capacity);
+		this.dir = dir;
+		this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+		dir.mkdirs();
+		deleteAbandoned();
+	}
+
+	/**
+	 * Return the directory of the inboxes
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * Deliver the messages to an endpoint to a receiver, from a thread of its own
+	 * @param endPoint the endpoint
+	 * @param receiver the receiver
+	 * @throws IOException if the inbox can not be created, or another process listens on the endpoint
+	 */
+	public void register(String endPoint, MessageReceiver receiver) throws IOException {
+		if (deleteOnExit.compareAndSet(false, true)) {
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					deregisterAll();
+				}
+			}, "shm-exit"));
+		}
+		while (true) {
+			RingBuffer inbox = getInbox(endPoint, true);
+			Thread thread = listener(endPoint, inbox, receiver);
+			if (inbox.startListening(thread)) {
+				thread.start();
+				return;
+			}
+			// Closed by a process deleting it, which may not have got to the file yet
+			deleteFile(endPoint, inbox);
+		}
+	}
+
+	private static Thread listener(String endPoint, final RingBuffer inbox, final MessageReceiver receiver) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] message;
+				while ((message = inbox.take()) != null) {
+					try {
+						receiver.onMessage(new String(message, StandardCharsets.UTF_8));
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}, "shm-" + endPoint);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Stop delivering the messages to an endpoint, and delete its inbox if this process listened
+	 * @param endPoint the endpoint
+	 */
+	public void deregister(String endPoint) {
+		RingBuffer inbox = inboxes.get(endPoint);
+		if (inbox == null)
+			return;
+		if (inbox.close(PID)) {
+			inboxes.remove(endPoint, inbox);
+			deleteFile(endPoint, inbox);
+		} else {
+			inbox.stopListening();
+		}
+	}
+
+	/**
+	 * Stop delivering the messages to all endpoints this process listens on, and delete their inboxes
+	 */
+	public void deregisterAll() {
+		for (Map.Entry<String, RingBuffer> entry : inboxes.entrySet()) {
+			if (entry.getValue().close(PID)) {
+				inboxes.remove(entry.getKey(), entry.getValue());
+				deleteFile(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Delete the inboxes whose listening process is gone, with the messages in them
+	 * @return the number of inboxes deleted
+	 */
+	public int deleteAbandoned() {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return 0;
+		int deleted = 0;
+		for (File file : files) {
+			if (!file.getName().endsWith(".inbox"))
+				continue;
+			try {
+				RingBuffer inbox = RingBuffer.open(file.getName(), file, capacity, false);
+				if (inbox != null && inbox.closeIfAbandoned() && inbox.isFile(file) && file.delete())
+					deleted++;
+			} catch (IOException e) {
+				// Deleted meanwhile, or not an inbox
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Send a message
+	 * @param destinationEndPoint the destination
+	 * @param msgText the message
+	 * @throws IOException if the destination has no inbox, or it stayed full
+	 */
+	public void send(String destinationEndPoint, String msgText) throws IOException {
+		RingBuffer inbox = getInbox(destinationEndPoint, false);
+		if (inbox == null)
+			throw new IOException("No inbox for endpoint " + destinationEndPoint + " in " + dir);
+		inbox.offer(msgText.getBytes(StandardCharsets.UTF_8), sendTimeoutNanos);
+	}
+
+	/**
+	 * Check whether a live process on this host listens on an endpoint
+	 * @param endPoint the endpoint
+	 * @return true if a process listens
+	 */
+	public boolean isListened(String endPoint) {
+		try {
+			RingBuffer inbox = getInbox(endPoint, false);
+			return inbox != null && inbox.isListened();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Return the number of bytes of messages waiting in the inbox of an endpoint
+	 * @param endPoint the endpoint
+	 * @return the number of bytes, 0 if the endpoint has no inbox
+	 */
+	public long getPendingBytes(String endPoint) {
+		try {
+			RingBuffer inbox = getInbox(endPoint, false);
+			return inbox == null ? 0 : inbox.getPendingBytes();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Set how long a sender waits while the inbox of the destination is full
+	 * @param timeout the max time
+	 * @param unit the time unit
+	 */
+	public void setSendTimeout(long timeout, TimeUnit unit) {
+		sendTimeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Delete the inbox of an endpoint, with the messages in it
+	 * @param endPoint the endpoint
+	 */
+	public void delete(String endPoint) {
+		RingBuffer inbox = inboxes.remove(endPoint);
+		if (inbox == null) {
+			try {
+				inbox = RingBuffer.open(endPoint, getFile(endPoint), capacity, false);
+			} catch (IOException e) {
+				// Not an inbox
+			}
+		}
+		if (inbox != null)
+			inbox.close();
+		getFile(endPoint).delete();
+	}
+
+	private RingBuffer getInbox(String endPoint, boolean create) throws IOException {
+		RingBuffer inbox = inboxes.get(endPoint);
+		if (inbox != null && inbox.isClosed()) {
+			// Deleted, there may be a new one
+			inboxes.remove(endPoint, inbox);
+			inbox = null;
+		}
+		if (inbox == null) {
+			inbox = RingBuffer.open(endPoint, getFile(endPoint), capacity, create);
+			if (inbox == null || (inbox.isClosed() && !create))
+				return null;
+			RingBuffer existing = inboxes.putIfAbsent(endPoint, inbox);
+			if (existing != null)
+				inbox = existing;
+		}
+		return inbox;
+	}
+
+	/**
+	 * Delete the file of a closed inbox, unless it was replaced by a new one
+	 */
+	private void deleteFile(String endPoint, RingBuffer inbox) {
+		File file = getFile(endPoint);
+		if (inbox.isFile(file))
+			file.delete();
+	}
+
+	private File getFile(String endPoint) {
+		try {
+			return new File(dir, URLEncoder.encode(endPoint, "UTF-8") + ".inbox");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package service.provider.shm;
+
+import service.provider.ServiceProvider;
+import service.provider.TransportFactory;
+
+/**
+ * The transport between processes on the same host, see {@link SharedMemoryServiceProvider}
+ */
+public class SharedMemoryTransportFactory implements TransportFactory {
+
+    @Override
+    public String getName() {
+    	return "shm";
+    }
+
+    @Override
+    public Locality getLocality() {
+    	return Locality.HOST;
+    }
+
+    @Override
+    public boolean canReach(String endPoint) {
+    	return SharedMemoryTransport.getInstance().isListened(endPoint);
+    }
+
+    @Override
+    public ServiceProvider createServiceProvider() {
+    	return new SharedMemoryServiceProvider();
+    }
+}
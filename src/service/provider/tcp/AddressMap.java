@@ -0,0 +1,139 @@
+package service.provider.tcp;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * The addresses of the processes listening on endpoints
+ *
+ * An entry maps an endpoint, or a group of endpoints by a prefix ending with "*", to the
+ * host and port of a {@link TCPTransport}. The longest matching group wins. Endpoints not
+ * in the map are looked up with the resolver, e.g. one asking a registry, and kept.
+ */
+public class AddressMap {
+
+	/**
+	 * Finds the addresses of endpoints missing from the map
+	 */
+	public interface Resolver {
+
+		/**
+		 * Return the address of an endpoint
+		 * @param endPoint the endpoint
+		 * @return the address, null if unknown
+		 */
+		public InetSocketAddress resolve(String endPoint);
+	}
+
+	private static AddressMap defaultMap;
+
+	private final Map<String, InetSocketAddress> addresses = new ConcurrentHashMap<>();
+	private final Map<String, InetSocketAddress> groups = new ConcurrentHashMap<>();
+	private volatile Resolver resolver;
+
+	/**
+	 * Return the map shared by default, loaded from the file in "resep.tcp.addresses" if set
+	 * @return the default map
+	 */
+	public static synchronized AddressMap getDefault() {
+		if (defaultMap == null) {
+			defaultMap = new AddressMap();
+			String file = System.getProperty("resep.tcp.addresses");
+			if (file != null) {
+				try (InputStream in = new FileInputStream(file)) {
+					Properties properties = new Properties();
+					properties.load(in);
+					defaultMap.putAll(properties);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return defaultMap;
+	}
+
+	/**
+	 * Parse an address
+	 * @param address the address as "host:port"
+	 * @return the address
+	 */
+	public static InetSocketAddress parse(String address) {
+		int colon = address.lastIndexOf(':');
+		if (colon < 0)
+			throw new IllegalArgumentException("Invalid address, expected host:port: " + address);
+		return new InetSocketAddress(address.substring(0, colon).trim(), Integer.parseInt(address.substring(colon + 1).trim()));
+	}
+
+	/**
+	 * Add the address of an endpoint or a group
+	 * @param endPoint the endpoint, or a prefix ending with "*"
+	 * @param address the address
+	 */
+	public void put(String endPoint, InetSocketAddress address) {
+		if (endPoint.endsWith("*"))
+			groups.put(endPoint.substring(0, endPoint.length() - 1), address);
+		else
+			addresses.put(endPoint, address);
+	}
+
+	/**
+	 * Add addresses
+	 * @param properties the addresses as "host:port" by endpoint or group
+	 */
+	public void putAll(Properties properties) {
+		for (String endPoint : properties.stringPropertyNames())
+			put(endPoint, parse(properties.getProperty(endPoint)));
+	}
+
+	/**
+	 * Remove the address of an endpoint or a group
+	 * @param endPoint the endpoint, or a prefix ending with "*"
+	 */
+	public void remove(String endPoint) {
+		if (endPoint.endsWith("*"))
+			groups.remove(endPoint.substring(0, endPoint.length() - 1));
+		else
+			addresses.remove(endPoint);
+	}
+
+	/**
+	 * Set the resolver for the endpoints missing from the map
+	 * @param resolver the resolver, null for none
+	 */
+	public void setResolver(Resolver resolver) {
+		this.resolver = resolver;
+	}
+
+	/**
+	 * Return the address of an endpoint
+	 * @param endPoint the endpoint
+	 * @return the address, null if unknown
+	 */
+	public InetSocketAddress lookup(String endPoint) {
+		InetSocketAddress address = addresses.get(endPoint);
+		if (address != null)
+			return address;
+		String group = null;
+		for (Map.Entry<String, InetSocketAddress> entry : groups.entrySet()) {
+			if (endPoint.startsWith(entry.getKey()) && (group == null || entry.getKey().length() > group.length())) {
+				group = entry.getKey();
+				address = entry.getValue();
+			}
+		}
+		if (address != null)
+			return address;
+		Resolver resolver = this.resolver;
+		if (resolver != null) {
+			address = resolver.resolve(endPoint);
+			if (address != null)
+				addresses.put(endPoint, address);
+		}
+		return address;
+	}
+}
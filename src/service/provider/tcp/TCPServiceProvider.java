@@ -0,0 +1,67 @@
+package service.provider.tcp;
+
+import java.io.IOException;
+
+import service.auxiliary.MessageCodec;
+import service.provider.MessageReceiver;
+import service.provider.ServiceProvider;
+import service.provider.ServiceProviderFactory;
+
+/**
+ *
+ * A service provider sending messages to other processes over TCP, see {@link TCPTransport}
+ */
+public class TCPServiceProvider implements ServiceProvider {
+
+    private final TCPTransport transport;
+    private String endPoint;
+    private MessageCodec messageCodec = ServiceProviderFactory.getMessageCodec();
+
+    /**
+     * Constructor, for the transport shared by default
+     */
+    public TCPServiceProvider() {
+    	this(TCPTransport.getInstance());
+    }
+
+    /**
+     * Constructor
+     * @param transport the transport
+     */
+    public TCPServiceProvider(TCPTransport transport) {
+    	this.transport = transport;
+    }
+
+    @Override
+    public void startListening(String endPoint, MessageReceiver messageReceiver) {
+    	this.endPoint = endPoint;
+    	transport.register(endPoint, messageReceiver);
+    }
+
+    @Override
+    public void stopListening() {
+    	transport.deregister(endPoint);
+    }
+
+    @Override
+    public void sendMessage(String msgText, String destinationEndPoint) {
+    	try {
+    		transport.send(endPoint, destinationEndPoint, msgText);
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
+    }
+
+    @Override
+    public MessageCodec getMessageCodec() {
+    	return messageCodec;
+    }
+
+    /**
+     * Set the codec for the messages sent through this provider
+     * @param messageCodec the new message codec
+     */
+    public void setMessageCodec(MessageCodec messageCodec) {
+    	this.messageCodec = messageCodec;
+    }
+}
@@ -0,0 +1,627 @@
+package service.provider.tcp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import service.provider.MessageReceiver;
+
+/**
+ *
+ * Messages between processes over TCP, without a broker
+ *
+ * A transport listens on one port for all endpoints of the process. A message travels in a
+ * frame: its length, the destination and source endpoints, and the message text. There is
+ * one connection per peer, kept open and used both ways: the first frame over a new
+ * connection has no endpoints and carries the address its transport listens on, so the
+ * peer sends over it too. One selector thread does all socket work; frames waiting for a
+ * connection are written together with one gathering write. Senders wait while too many
+ * bytes wait for a peer, and fail if it does not read them in time. Destinations are found
+ * in this order: endpoints of this process, which get the message without a socket,
+ * endpoints that sent messages over a connection, e.g. clients waiting for responses, and
+ * the {@link AddressMap}.
+ */
+public class TCPTransport {
+
+	private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The max number of frames written at once
+	 */
+	private static final int WRITE_BATCH = 64;
+
+	/**
+	 * The max number of writes to a connection before the others are served
+	 */
+	private static final int MAX_WRITES = 16;
+
+	/**
+	 * The max number of messages an endpoint gets before the others are served
+	 */
+	private static final int DRAIN_BATCH = 64;
+
+	/**
+	 * The max time a sender sleeps between checks whether the bytes waiting for a peer went down
+	 */
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static TCPTransport defaultTransport;
+
+	/**
+	 * Return the transport shared by default, listening on "resep.tcp.host" and "resep.tcp.port",
+	 * by default an ephemeral port on the loopback address
+	 * @return the transport
+	 */
+	public static synchronized TCPTransport getInstance() {
+		if (defaultTransport == null) {
+			InetSocketAddress address = new InetSocketAddress(System.getProperty("resep.tcp.host", "127.0.0.1"),
+					Integer.getInteger("resep.tcp.port", 0));
+			try {
+				defaultTransport = new TCPTransport(address, AddressMap.getDefault());
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot listen on " + address, e);
+			}
+		}
+		return defaultTransport;
+	}
+
+	/**
+	 * Messages to one endpoint, delivered in order by one worker at a time
+	 */
+	private class Inbox implements Runnable {
+
+		private final MessageReceiver receiver;
+		private final ConcurrentLinkedQueue<String> messages = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		Inbox(MessageReceiver receiver) {
+			this.receiver = receiver;
+		}
+
+		void add(String message) {
+			messages.add(message);
+			if (scheduled.compareAndSet(false, true))
+				workers.execute(this);
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < DRAIN_BATCH; i++) {
+				String message = messages.poll();
+				if (message == null)
+					break;
+				try {
+					receiver.onMessage(message);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			scheduled.set(false);
+			// Messages may have arrived after the last poll
+			if (!messages.isEmpty() && scheduled.compareAndSet(false, true))
+				workers.execute(this);
+		}
+	}
+
+	/**
+	 * A connection to a peer, written and read by the selector thread only
+	 */
+	private class Connection {
+
+		private final SocketChannel channel;
+
+		/**
+		 * The address the peer listens on, null if the peer connected and has not sent it yet
+		 */
+		private volatile InetSocketAddress address;
+
+		private SelectionKey key;
+		private volatile boolean closed;
+
+		private final ConcurrentLinkedQueue<ByteBuffer> outgoing = new ConcurrentLinkedQueue<>();
+
+		/**
+		 * The number of bytes of the frames in the outgoing queue
+		 */
+		private final AtomicLong pendingBytes = new AtomicLong();
+
+		/**
+		 * Whether the selector thread writes or is about to write the outgoing frames
+		 */
+		private final AtomicBoolean writing = new AtomicBoolean();
+
+		private final ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+		private int batchStart;
+		private int batchEnd;
+
+		private ByteBuffer input = ByteBuffer.allocate(64 * 1024);
+
+		Connection(SocketChannel channel, InetSocketAddress address) {
+			this.channel = channel;
+			this.address = address;
+		}
+
+		void send(ByteBuffer frame) throws IOException {
+			int size = frame.remaining();
+			long deadline = 0;
+			long park = 1000;
+			while (true) {
+				long pending = pendingBytes.get();
+				// One frame is always accepted, however large
+				if (pending == 0 || pending + size <= maxPendingBytes) {
+					if (pendingBytes.compareAndSet(pending, pending + size))
+						break;
+					continue;
+				}
+				if (closed)
+					throw new IOException("Connection to " + (address != null ? address : "peer") + " closed");
+				if (deadline == 0)
+					deadline = System.nanoTime() + sendTimeoutNanos;
+				else if (System.nanoTime() - deadline > 0)
+					throw new IOException(pending + " bytes wait for " + (address != null ? address : "peer")
+							+ ", which does not read them");
+				LockSupport.parkNanos(park);
+				park = Math.min(2 * park, MAX_PARK_NANOS);
+			}
+			outgoing.add(frame);
+			if (writing.compareAndSet(false, true)) {
+				runOnSelector(new Runnable() {
+					@Override
+					public void run() {
+						if (key != null && key.isValid() && channel.isConnected())
+							key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						// Otherwise written once connected
+					}
+				});
+			}
+		}
+
+		void write() throws IOException {
+			for (int writes = 0; writes < MAX_WRITES; writes++) {
+				if (batchStart == batchEnd) {
+					batchStart = batchEnd = 0;
+					ByteBuffer frame;
+					while (batchEnd < WRITE_BATCH && (frame = outgoing.poll()) != null) {
+						pendingBytes.addAndGet(-frame.remaining());
+						batch[batchEnd++] = frame;
+					}
+					if (batchEnd == 0) {
+						key.interestOps(SelectionKey.OP_READ);
+						writing.set(false);
+						// Frames may have been added after the last poll
+						if (outgoing.isEmpty() || !writing.compareAndSet(false, true))
+							return;
+						key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						continue;
+					}
+				}
+				channel.write(batch, batchStart, batchEnd - batchStart);
+				while (batchStart < batchEnd && !batch[batchStart].hasRemaining())
+					batch[batchStart++] = null;
+				if (batchStart < batchEnd)
+					// The socket buffer is full
+					return;
+			}
+		}
+
+		void read() throws IOException {
+			if (channel.read(input) < 0)
+				throw new EOFException("Connection closed by the peer");
+			input.flip();
+			int needed = 0;
+			while (input.remaining() >= 4) {
+				int length = input.getInt(input.position());
+				if (length < 0 || length > MAX_FRAME_SIZE)
+					throw new IOException("Invalid frame length " + length);
+				if (input.remaining() < 4 + length) {
+					needed = 4 + length;
+					break;
+				}
+				input.getInt();
+				int end = input.position() + length;
+				String destination = readString(input, end);
+				String source = readString(input, end);
+				String message = new String(input.array(), input.arrayOffset() + input.position(), end - input.position(),
+						StandardCharsets.UTF_8);
+				input.position(end);
+				if (destination.isEmpty())
+					greeted(this, AddressMap.parse(message));
+				else
+					received(this, destination, source, message);
+			}
+			if (needed > input.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, 2 * input.capacity()));
+				larger.put(input);
+				input = larger;
+			} else {
+				input.compact();
+			}
+		}
+
+		int getPendingFrames() {
+			return outgoing.size() + batchEnd - batchStart;
+		}
+	}
+
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private final AddressMap addresses;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final ConcurrentHashMap<String, Inbox> inboxes = new ConcurrentHashMap<>();
+
+	/**
+	 * Connections to peers, by address
+	 */
+	private final ConcurrentHashMap<InetSocketAddress, Connection> peers = new ConcurrentHashMap<>();
+
+	/**
+	 * Connections to the endpoints that sent messages, by endpoint
+	 */
+	private final ConcurrentHashMap<String, Connection> routes = new ConcurrentHashMap<>();
+
+	private final ExecutorService workers;
+
+	private volatile long maxPendingBytes = Long.getLong("resep.tcp.pending", MAX_FRAME_SIZE);
+	private volatile long sendTimeoutNanos = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Constructor
+	 * @param bindAddress the address to listen on, port 0 for any free port
+	 * @param addresses the addresses of the endpoints of other processes
+	 * @throws IOException if the address can not be listened on
+	 */
+	public TCPTransport(InetSocketAddress bindAddress, AddressMap addresses) throws IOException {
+		this.addresses = addresses;
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(bindAddress);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+
+		int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "tcp-delivery-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		pool.allowCoreThreadTimeOut(true);
+		workers = pool;
+
+		Thread selectorThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				select();
+			}
+		}, "tcp-selector");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	/**
+	 * Return the address this transport listens on
+	 * @return the address
+	 */
+	public InetSocketAddress getAddress() {
+		try {
+			return (InetSocketAddress) server.getLocalAddress();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Return the addresses of the endpoints of other processes
+	 * @return the address map
+	 */
+	public AddressMap getAddressMap() {
+		return addresses;
+	}
+
+	/**
+	 * Deliver the messages to an endpoint to a receiver
+	 * @param endPoint the endpoint
+	 * @param receiver the receiver
+	 */
+	public void register(String endPoint, MessageReceiver receiver) {
+		inboxes.put(endPoint, new Inbox(receiver));
+	}
+
+	/**
+	 * Stop delivering the messages to an endpoint
+	 * @param endPoint the endpoint
+	 */
+	public void deregister(String endPoint) {
+		inboxes.remove(endPoint);
+	}
+
+	/**
+	 * Send a message
+	 * @param sourceEndPoint the endpoint of the sender, null if it does not listen
+	 * @param destinationEndPoint the destination
+	 * @param msgText the message
+	 * @throws IOException if the destination is unknown or can not be connected, or does not read
+	 */
+	public void send(String sourceEndPoint, String destinationEndPoint, String msgText) throws IOException {
+		Inbox inbox = inboxes.get(destinationEndPoint);
+		if (inbox != null) {
+			inbox.add(msgText);
+			return;
+		}
+		Connection connection = routes.get(destinationEndPoint);
+		if (connection == null || connection.closed) {
+			InetSocketAddress address = addresses.lookup(destinationEndPoint);
+			if (address == null)
+				throw new IOException("No address for endpoint " + destinationEndPoint);
+			connection = connect(address);
+		}
+		connection.send(frame(destinationEndPoint, sourceEndPoint == null ? "" : sourceEndPoint, msgText));
+	}
+
+	/**
+	 * Check whether an endpoint is known to this transport
+	 * @param endPoint the endpoint
+	 * @return true if the endpoint is in this process, sent messages here or has an address
+	 */
+	public boolean canReach(String endPoint) {
+		if (inboxes.containsKey(endPoint))
+			return true;
+		Connection connection = routes.get(endPoint);
+		return (connection != null && !connection.closed) || addresses.lookup(endPoint) != null;
+	}
+
+	/**
+	 * Return the number of frames waiting to be written
+	 * @return the number of frames
+	 */
+	public int getPendingFrames() {
+		int frames = 0;
+		for (Connection connection : peers.values())
+			frames += connection.getPendingFrames();
+		return frames;
+	}
+
+	/**
+	 * Set the max number of bytes waiting to be written to a peer, further sends to it wait.
+	 * One frame is always accepted. "resep.tcp.pending" sets the default, 64 MB.
+	 * @param maxPendingBytes the max number of bytes
+	 */
+	public void setMaxPendingBytes(long maxPendingBytes) {
+		this.maxPendingBytes = maxPendingBytes;
+	}
+
+	/**
+	 * Set how long a sender waits while too many bytes wait for the peer
+	 * @param timeout the max time
+	 * @param unit the time unit
+	 */
+	public void setSendTimeout(long timeout, TimeUnit unit) {
+		sendTimeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Close all connections and stop listening
+	 */
+	public void close() {
+		try {
+			for (SelectionKey key : selector.keys())
+				key.channel().close();
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		workers.shutdown();
+	}
+
+	private Connection connect(InetSocketAddress address) throws IOException {
+		Connection connection = peers.get(address);
+		if (connection != null && !connection.closed)
+			return connection;
+		synchronized (peers) {
+			connection = peers.get(address);
+			if (connection != null && !connection.closed)
+				return connection;
+			SocketChannel channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			final boolean connected = channel.connect(address);
+			final Connection created = new Connection(channel, address);
+			// First, so the peer sends over this connection too
+			created.send(frame("", "", getListenAddress(channel)));
+			peers.put(address, created);
+			runOnSelector(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						created.key = created.channel.register(selector, connected
+								? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, created);
+					} catch (ClosedChannelException e) {
+						close(created, e);
+					}
+				}
+			});
+			return created;
+		}
+	}
+
+	/**
+	 * Return the address to tell a peer this transport listens on
+	 */
+	private String getListenAddress(SocketChannel channel) throws IOException {
+		InetSocketAddress listening = getAddress();
+		InetAddress host = listening.getAddress();
+		if (host.isAnyLocalAddress()) {
+			// The address the peer is reached from
+			InetSocketAddress local = (InetSocketAddress) channel.getLocalAddress();
+			host = local != null ? local.getAddress() : InetAddress.getLoopbackAddress();
+		}
+		return host.getHostAddress() + ":" + listening.getPort();
+	}
+
+	/**
+	 * Use a connection the peer opened to send to it, unless there is one already
+	 */
+	private void greeted(Connection connection, InetSocketAddress address) {
+		synchronized (peers) {
+			connection.address = address;
+			Connection existing = peers.get(address);
+			// Frames already sent over a connection keep it, so they stay in order
+			if (existing == null || existing.closed)
+				peers.put(address, connection);
+		}
+	}
+
+	private void received(Connection connection, String destination, String source, String message) {
+		if (!source.isEmpty() && routes.get(source) != connection)
+			routes.put(source, connection);
+		Inbox inbox = inboxes.get(destination);
+		if (inbox != null)
+			inbox.add(message);
+		else
+			System.err.println("No endpoint " + destination + ", message dropped");
+	}
+
+	private void runOnSelector(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	private void select() {
+		while (selector.isOpen()) {
+			try {
+				selector.select();
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						handle(key);
+					} catch (RuntimeException e) {
+						// Only the connection of the key fails
+						if (key.attachment() instanceof Connection)
+							close((Connection) key.attachment(), new IOException(e));
+						else
+							e.printStackTrace();
+					}
+				}
+			} catch (ClosedSelectorException e) {
+				return;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void handle(SelectionKey key) throws IOException {
+		if (!key.isValid())
+			return;
+		if (key.isAcceptable()) {
+			SocketChannel channel = server.accept();
+			if (channel != null) {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				Connection connection = new Connection(channel, null);
+				connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+			}
+			return;
+		}
+		Connection connection = (Connection) key.attachment();
+		try {
+			if (key.isConnectable()) {
+				connection.channel.finishConnect();
+				// Frames sent meanwhile are written now
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			if (key.isReadable())
+				connection.read();
+			if (key.isValid() && key.isWritable())
+				connection.write();
+		} catch (IOException e) {
+			close(connection, e);
+		}
+	}
+
+	private void close(Connection connection, IOException cause) {
+		connection.closed = true;
+		if (connection.key != null)
+			connection.key.cancel();
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+			// Closed anyway
+		}
+		if (connection.address != null)
+			peers.remove(connection.address, connection);
+		for (Iterator<Map.Entry<String, Connection>> iter = routes.entrySet().iterator(); iter.hasNext();) {
+			if (iter.next().getValue() == connection)
+				iter.remove();
+		}
+		int lost = connection.getPendingFrames();
+		if (lost > 0 || !(cause instanceof EOFException))
+			System.err.println("Connection to " + (connection.address != null ? connection.address : "peer")
+					+ " closed, " + lost + " messages dropped: " + cause);
+	}
+
+	private static ByteBuffer frame(String destination, String source, String message) {
+		byte[] destinationBytes = destination.getBytes(StandardCharsets.UTF_8);
+		byte[] sourceBytes = source.getBytes(StandardCharsets.UTF_8);
+		byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+		if (destinationBytes.length > 0xFFFF || sourceBytes.length > 0xFFFF)
+			throw new IllegalArgumentException("Endpoint name too long");
+		ByteBuffer frame = ByteBuffer.allocate(8 + destinationBytes.length + sourceBytes.length + messageBytes.length);
+		frame.putInt(frame.capacity() - 4);
+		frame.putShort((short) destinationBytes.length).put(destinationBytes);
+		frame.putShort((short) sourceBytes.length).put(sourceBytes);
+		frame.put(messageBytes);
+		frame.flip();
+		return frame;
+	}
+
+	private static String readString(ByteBuffer buffer, int end) throws IOException {
+		if (buffer.position() + 2 > end)
+			throw new IOException("Invalid frame");
+		int length = buffer.getShort() & 0xFFFF;
+		if (buffer.position() + length > end)
+			throw new IOException("Invalid frame");
+		String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return string;
+	}
+}
@@ -0,0 +1,30 @@
+package service.provider.tcp;
+
+import service.provider.ServiceProvider;
+import service.provider.TransportFactory;
+
+/**
+ * The transport between processes over TCP, see {@link TCPServiceProvider}
+ */
+public class TCPTransportFactory implements TransportFactory {
+
+    @Override
+    public String getName() {
+    	return "tcp";
+    }
+
+    @Override
+    public Locality getLocality() {
+    	return Locality.NETWORK;
+    }
+
+    @Override
+    public boolean canReach(String endPoint) {
+    	return TCPTransport.getInstance().canReach(endPoint);
+    }
+
+    @Override
+    public ServiceProvider createServiceProvider() {
+    	return new TCPServiceProvider();
+    }
+}
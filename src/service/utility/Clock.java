@@ -0,0 +1,62 @@
+package service.utility;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source of time for services and the messaging layer, see {@link Time}
+ *
+ * Scheduled tasks must not block, they all share the thread of the clock.
+ */
+public interface Clock {
+
+	/**
+	 * Return the current time
+	 * @return the time in milliseconds
+	 */
+	long currentTimeMillis();
+
+	/**
+	 * Run a task once after a delay
+	 * @param task the task
+	 * @param delay the delay
+	 * @param unit the unit of the delay
+	 * @return the scheduled task, to cancel it
+	 */
+	Future<?> schedule(Runnable task, long delay, TimeUnit unit);
+
+	/**
+	 * Run a task periodically until it is cancelled
+	 * @param task the task
+	 * @param initialDelay the delay of the first run
+	 * @param period the time between the start of two runs
+	 * @param unit the unit of the delay and period
+	 * @return the scheduled task, to cancel it
+	 */
+	Future<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit);
+
+	/**
+	 * Mark a task handed to another thread as pending work until it has run
+	 * @param task the task
+	 * @return the task to hand over instead
+	 */
+	Runnable track(Runnable task);
+
+	/**
+	 * Wait for a result, letting time pass meanwhile
+	 * @param future the result
+	 * @return the value of the result
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 * @throws ExecutionException if the result is a failure
+	 */
+	<T> T await(CompletableFuture<T> future) throws InterruptedException, ExecutionException;
+
+	/**
+	 * Let time pass
+	 * @param millis the time in milliseconds
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	void sleep(long millis) throws InterruptedException;
+}
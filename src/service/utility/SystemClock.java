@@ -0,0 +1,57 @@
+package service.utility;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The wall clock, time passes on its own
+ */
+public class SystemClock implements Clock {
+
+	private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "clock-timer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static {
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return timer.schedule(task, delay, unit);
+	}
+
+	@Override
+	public Future<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+		return timer.scheduleAtFixedRate(task, initialDelay, period, unit);
+	}
+
+	@Override
+	public Runnable track(Runnable task) {
+		return task;
+	}
+
+	@Override
+	public <T> T await(CompletableFuture<T> future) throws InterruptedException, ExecutionException {
+		return future.get();
+	}
+
+	@Override
+	public void sleep(long millis) throws InterruptedException {
+		Thread.sleep(millis);
+	}
+}
@@ -1,7 +1,15 @@
 package service.utility;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Responsible for managing relationship between actual time and logical time 
+ *
+ * All timing goes through the current {@link Clock}: the wall clock by default,
+ * or a {@link VirtualClock} to simulate long scenarios in a fraction of the time.
  * @author Yifan Ruan
  * @email  ry222ad@student.lnu.se
  */
@@ -10,4 +18,82 @@ public class Time {
 	 * Scaling time with this parameter
 	 */
 	public static int scale=100;   
+
+	private static volatile Clock clock = new SystemClock();
+
+	/**
+	 * Return the current clock
+	 * @return the clock
+	 */
+	public static Clock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Set the clock, before any service is started
+	 * @param clock the new clock
+	 */
+	public static void setClock(Clock clock) {
+		Time.clock = clock;
+	}
+
+	/**
+	 * Return the current time of the clock
+	 * @return the time in milliseconds
+	 */
+	public static long currentTimeMillis() {
+		return clock.currentTimeMillis();
+	}
+
+	/**
+	 * Run a task once after a delay, see {@link Clock#schedule}
+	 * @param task the task, which must not block
+	 * @param delay the delay
+	 * @param unit the unit of the delay
+	 * @return the scheduled task, to cancel it
+	 */
+	public static Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return clock.schedule(task, delay, unit);
+	}
+
+	/**
+	 * Run a task periodically until it is cancelled, see {@link Clock#scheduleAtFixedRate}
+	 * @param task the task, which must not block
+	 * @param initialDelay the delay of the first run
+	 * @param period the time between the start of two runs
+	 * @param unit the unit of the delay and period
+	 * @return the scheduled task, to cancel it
+	 */
+	public static Future<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+		return clock.scheduleAtFixedRate(task, initialDelay, period, unit);
+	}
+
+	/**
+	 * Mark a task handed to another thread as pending work, see {@link Clock#track}
+	 * @param task the task
+	 * @return the task to hand over instead
+	 */
+	public static Runnable track(Runnable task) {
+		return clock.track(task);
+	}
+
+	/**
+	 * Wait for a result, see {@link Clock#await}
+	 * @param future the result
+	 * @return the value of the result
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 * @throws ExecutionException if the result is a failure
+	 */
+	public static <T> T await(CompletableFuture<T> future) throws InterruptedException, ExecutionException {
+		return clock.await(future);
+	}
+
+	/**
+	 * Let logical time pass
+	 * @param units the time in logical units, each {@link #scale} milliseconds
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public static void sleep(long units) throws InterruptedException {
+		clock.sleep(units * scale);
+	}
 }
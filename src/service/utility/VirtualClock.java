@@ -0,0 +1,252 @@
+package service.utility;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Simulated time for discrete-event runs: time only passes when nothing else happens.
+ *
+ * The clock counts pending work: tasks handed over with {@link #track}, threads attached
+ * with {@link #attach} and scheduled tasks while they run. A thread waiting in
+ * {@link #await} or {@link #sleep} does not count. Whenever the count drops to zero,
+ * the clock jumps to the earliest scheduled task and runs it. Tasks due at the same
+ * time run in the order they were scheduled, and each one only after the work it
+ * started has finished, so a run whose services draw from seeded random numbers
+ * can be repeated. A simulated hour takes as long as its messages take to process.
+ *
+ * The thread driving the simulation should attach itself before starting services,
+ * otherwise time may pass between its steps.
+ */
+public class VirtualClock implements Clock {
+
+	/**
+	 * A scheduled task
+	 */
+	private class Event extends FutureTask<Void> implements Comparable<Event> {
+
+		private long time;
+		private long sequence;
+		private final long period;
+
+		Event(Runnable task, long time, long period) {
+			super(task, null);
+			this.time = time;
+			this.period = period;
+		}
+
+		@Override
+		public void run() {
+			if (period == 0)
+				super.run();
+			else if (runAndReset())
+				add(this, time + period);
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			if (time != other.time)
+				return time < other.time ? -1 : 1;
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	private final Object lock = new Object();
+	private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+	private long sequence;
+	private int active;
+	private volatile long now;
+
+	private final ThreadLocal<int[]> attached = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	/**
+	 * Constructor, starting at time 0
+	 */
+	public VirtualClock() {
+		this(0);
+	}
+
+	/**
+	 * Constructor
+	 * @param startTime the initial time in milliseconds
+	 */
+	public VirtualClock(long startTime) {
+		this.now = startTime;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				advance();
+			}
+		}, "virtual-clock");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void advance() {
+		while (true) {
+			Event event;
+			synchronized (lock) {
+				while (active > 0 || events.isEmpty()) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				event = events.poll();
+				if (event.isCancelled())
+					continue;
+				if (event.time > now)
+					now = event.time;
+				active++;
+			}
+			int[] depth = attached.get();
+			depth[0]++;
+			try {
+				event.run();
+			} finally {
+				depth[0]--;
+				idle();
+			}
+		}
+	}
+
+	private void add(Event event, long time) {
+		synchronized (lock) {
+			event.time = time;
+			event.sequence = sequence++;
+			events.add(event);
+			if (active == 0)
+				lock.notify();
+		}
+	}
+
+	private void busy() {
+		synchronized (lock) {
+			active++;
+		}
+	}
+
+	private void idle() {
+		synchronized (lock) {
+			if (--active == 0)
+				lock.notify();
+		}
+	}
+
+	/**
+	 * Count the current thread as pending work until it calls {@link #detach}
+	 */
+	public void attach() {
+		attached.get()[0]++;
+		busy();
+	}
+
+	/**
+	 * Stop counting the current thread as pending work
+	 */
+	public void detach() {
+		int[] depth = attached.get();
+		if (depth[0] == 0)
+			throw new IllegalStateException("The thread is not attached");
+		depth[0]--;
+		idle();
+	}
+
+	/**
+	 * Return the number of scheduled tasks, including cancelled ones not yet discarded
+	 * @return the number of tasks
+	 */
+	public int getPendingEvents() {
+		synchronized (lock) {
+			return events.size();
+		}
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return now;
+	}
+
+	@Override
+	public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		Event event = new Event(task, 0, 0);
+		add(event, now + Math.max(0, unit.toMillis(delay)));
+		return event;
+	}
+
+	@Override
+	public Future<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+		if (period <= 0)
+			throw new IllegalArgumentException("Invalid period: " + period);
+		Event event = new Event(task, 0, unit.toMillis(period));
+		add(event, now + Math.max(0, unit.toMillis(initialDelay)));
+		return event;
+	}
+
+	@Override
+	public Runnable track(final Runnable task) {
+		busy();
+		return new Runnable() {
+			@Override
+			public void run() {
+				int[] depth = attached.get();
+				depth[0]++;
+				try {
+					task.run();
+				} finally {
+					depth[0]--;
+					idle();
+				}
+			}
+		};
+	}
+
+	@Override
+	public <T> T await(CompletableFuture<T> future) throws InterruptedException, ExecutionException {
+		if (future.isDone() || attached.get()[0] == 0)
+			return future.get();
+		// Whoever completes the result counts this thread again before it wakes up
+		final AtomicBoolean waiting = new AtomicBoolean(true);
+		future.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T result, Throwable failure) {
+				if (waiting.compareAndSet(true, false))
+					busy();
+			}
+		});
+		idle();
+		try {
+			return future.get();
+		} finally {
+			if (waiting.compareAndSet(true, false))
+				busy();
+		}
+	}
+
+	@Override
+	public void sleep(long millis) throws InterruptedException {
+		final CompletableFuture<Void> wakeUp = new CompletableFuture<Void>();
+		schedule(new Runnable() {
+			@Override
+			public void run() {
+				wakeUp.complete(null);
+			}
+		}, millis, TimeUnit.MILLISECONDS);
+		try {
+			await(wakeUp);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
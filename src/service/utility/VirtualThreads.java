@@ -0,0 +1,43 @@
+package service.utility;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads, which only JVMs from Java 21 on have
+ */
+public class VirtualThreads {
+
+	private static final Method newVirtualThreadPerTaskExecutor = find();
+
+	private static Method find() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Check whether the JVM has virtual threads
+	 * @return true if virtual threads are available
+	 */
+	public static boolean isAvailable() {
+		return newVirtualThreadPerTaskExecutor != null;
+	}
+
+	/**
+	 * Create an executor starting a virtual thread for each task
+	 * @return the executor, null if the JVM has no virtual threads
+	 */
+	public static ExecutorService newExecutor() {
+		if (newVirtualThreadPerTaskExecutor == null)
+			return null;
+		try {
+			return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package service.workflow;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import service.workflow.ast.ASTNode.Start;
+import taskgraph.CompiledTaskGraph;
+import taskgraph.TaskGraph.START;
+import taskgraph.TaskGraphCompiler;
+
+/**
+ * A parsed workflow: the AST root and the task graph built from it
+ *
+ */
+public class CompiledWorkflow {
+
+    private final String path;
+    private final byte[] contentHash;
+    private final Start ast;
+    private final START taskGraph;
+
+    private final AtomicLong invocations = new AtomicLong();
+    private volatile CompiledTaskGraph compiledTaskGraph;
+
+    /**
+     * Constructor
+     * @param path the workflow file path
+     * @param contentHash the hash of the workflow content
+     * @param ast the AST root
+     * @param taskGraph the task graph start node
+     */
+    public CompiledWorkflow(String path, byte[] contentHash, Start ast, START taskGraph) {
+    	this.path = path;
+    	this.contentHash = contentHash;
+    	this.ast = ast;
+    	this.taskGraph = taskGraph;
+    }
+
+    /**
+     * Return the workflow file path
+     * @return the workflow file path
+     */
+    public String getPath() {
+    	return path;
+    }
+
+    /**
+     * Return the hash of the workflow content
+     * @return the content hash
+     */
+    public byte[] getContentHash() {
+    	return contentHash;
+    }
+
+    /**
+     * Return the AST root
+     * @return the AST root
+     */
+    public Start getAst() {
+    	return ast;
+    }
+
+    /**
+     * Return the task graph
+     * @return the task graph start node
+     */
+    public START getTaskGraph() {
+    	return taskGraph;
+    }
+
+    /**
+     * Count an invocation of this workflow
+     * @return the number of invocations so far, including this one
+     */
+    public long countInvocation() {
+    	return invocations.incrementAndGet();
+    }
+
+    /**
+     * Return the task graph compiled for the compiling engine, compiling it on first use
+     * @return the compiled task graph
+     */
+    public CompiledTaskGraph getCompiledTaskGraph() {
+    	CompiledTaskGraph compiled = compiledTaskGraph;
+    	if (compiled == null) {
+    		synchronized (this) {
+    			if (compiledTaskGraph == null)
+    				compiledTaskGraph = TaskGraphCompiler.compile(taskGraph);
+    			compiled = compiledTaskGraph;
+    		}
+    	}
+    	return compiled;
+    }
+
+    /**
+     * Check whether the task graph has been compiled
+     * @return true if compiled
+     */
+    public boolean isCompiled() {
+    	return compiledTaskGraph != null;
+    }
+}
@@ -0,0 +1,163 @@
+package service.workflow;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.RecognitionException;
+
+import service.workflow.ast.ASTNode.Start;
+import service.workflow.ast.rspLexer;
+import service.workflow.ast.rspParser;
+import taskgraph.TaskGraph.START;
+import taskgraph.TaskGraphResolver;
+
+/**
+ * Cache of compiled workflows, keyed by workflow path and content hash.
+ *
+ * A compiled task graph keeps no per-invocation state, so one copy is shared
+ * by all concurrent invocations of the workflow.
+ */
+public class WorkflowCache {
+
+    private Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    /**
+     * Return the compiled workflow, parsing it only if its content has not been compiled yet
+     * @param workflowPath the workflow file path
+     * @return the compiled workflow
+     * @throws IOException if the workflow file can not be read
+     * @throws RecognitionException if the workflow can not be parsed
+     */
+    public CompiledWorkflow get(String workflowPath) throws IOException, RecognitionException {
+		Entry entry = lookup(workflowPath);
+		CompiledWorkflow compiled = entry.compiled;
+		if (compiled != null) {
+			hits.incrementAndGet();
+			return compiled;
+		}
+		synchronized (entry) {
+			if (entry.compiled == null) {
+				misses.incrementAndGet();
+				entry.compiled = compile(entry);
+			} else {
+				hits.incrementAndGet();
+			}
+			return entry.compiled;
+		}
+    }
+
+    /**
+     * Drop the compiled copies of a workflow
+     * @param workflowPath the workflow file path
+     */
+    public void invalidate(String workflowPath) {
+    	if (workflowPath != null)
+    		entries.remove(workflowPath);
+    }
+
+    /**
+     * Drop all compiled workflows
+     */
+    public void invalidateAll() {
+    	entries.clear();
+    }
+
+    /**
+     * Return the number of invocations served by an already compiled workflow
+     * @return the hit count
+     */
+    public long getHitCount() {
+    	return hits.get();
+    }
+
+    /**
+     * Return the number of invocations that had to parse the workflow
+     * @return the miss count
+     */
+    public long getMissCount() {
+    	return misses.get();
+    }
+
+    private Entry lookup(String workflowPath) throws IOException {
+		File file = new File(workflowPath);
+		long modified = file.lastModified();
+		long length = file.length();
+
+		Entry entry = entries.get(workflowPath);
+		if (entry != null && entry.modified == modified && entry.length == length) {
+			return entry;
+		}
+
+		// The file stamp changed (or was never seen), so compare the content itself
+		byte[] source = Files.readAllBytes(file.toPath());
+		byte[] hash = hash(source);
+		if (entry != null && Arrays.equals(entry.hash, hash)) {
+			entry.modified = modified;
+			entry.length = length;
+			return entry;
+		}
+
+		entry = new Entry(workflowPath, source, hash, modified, length);
+		entries.put(workflowPath, entry);
+		return entry;
+    }
+
+    private CompiledWorkflow compile(Entry entry) throws RecognitionException {
+		ANTLRStringStream input = new ANTLRStringStream(new String(entry.source));
+		input.name = entry.path;
+		rspLexer lexer = new rspLexer(input);
+		CommonTokenStream tokens = new CommonTokenStream(lexer);
+		rspParser parser = new rspParser(tokens);
+
+		// Get AST root
+		Start start = (Start) parser.start().getTree();
+
+		// ASTSymTabVisualizer astVisualizer = new ASTSymTabVisualizer();
+		// astVisualizer.exportGML(workFlow + "_AST", start);
+
+		START startGraph = (START) start.getFirst();
+		// TaskGraphVisualizer tgVisualizer = new TaskGraphVisualizer();
+		// tgVisualizer.exportGML(workFlow + "_TaskGraph", startGraph);
+
+		TaskGraphResolver.resolve(startGraph);
+
+		return new CompiledWorkflow(entry.path, entry.hash, start, startGraph);
+    }
+
+    private static byte[] hash(byte[] source) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(source);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+    }
+
+    private static class Entry {
+		final String path;
+		final byte[] source;
+		final byte[] hash;
+		volatile long modified;
+		volatile long length;
+		volatile CompiledWorkflow compiled;
+
+		Entry(String path, byte[] source, byte[] hash, long modified, long length) {
+			this.path = path;
+			this.source = source;
+			this.hash = hash;
+			this.modified = modified;
+			this.length = length;
+		}
+    }
+}
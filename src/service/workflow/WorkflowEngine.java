@@ -1,17 +1,16 @@
 package service.workflow;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
-import org.antlr.runtime.ANTLRFileStream;
-import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
+import service.auxiliary.Configuration;
+import service.auxiliary.WorkflowEngineMode;
 import service.composite.CompositeService;
 import service.composite.SDCache;
-import service.workflow.ast.ASTNode.Start;
-import service.workflow.ast.rspLexer;
-import service.workflow.ast.rspParser;
-import taskgraph.TaskGraph.START;
 import taskgraph.TaskGraphInterpreter;
+import taskgraph.UndeclaredVariableException;
 
 /**
  * Workflow execution of composite service
@@ -40,31 +39,72 @@ public class WorkflowEngine {
      * @return the result after executing the workflow
      */
     public Object executeWorkflow(String workFlow, String qosRequirement, Object... parameters) {
-		rspLexer lexer;
 		try {
-			lexer = new rspLexer(new ANTLRFileStream(workFlow));
-			CommonTokenStream tokens = new CommonTokenStream(lexer);
-			rspParser parser = new rspParser(tokens);
+			CompiledWorkflow compiled = service.getWorkflowCache().get(workFlow);
 
-			// Get AST root
-			Start start = (Start) parser.start().getTree();
-
-			// ASTSymTabVisualizer astVisualizer = new ASTSymTabVisualizer();
-			// astVisualizer.exportGML(workFlow + "_AST", start);
-
-			START startGraph = (START) start.getFirst();
-			// TaskGraphVisualizer tgVisualizer = new TaskGraphVisualizer();
-			// tgVisualizer.exportGML(workFlow + "_TaskGraph", startGraph);
-
-			TaskGraphInterpreter interpreter = new TaskGraphInterpreter();
-			Object value = interpreter.interpret(startGraph, 
-					qosRequirement, service, parameters);
+			Object value;
+			if (useCompiler(compiled)) {
+				value = compiled.getCompiledTaskGraph().execute(qosRequirement, service, parameters);
+			} else {
+				TaskGraphInterpreter interpreter = new TaskGraphInterpreter();
+				value = interpreter.interpret(compiled.getTaskGraph(),
+						qosRequirement, service, parameters);
+			}
 			System.out.println("Result:" + value);
 			return value;
-		} catch (IOException | RecognitionException e) {
+		} catch (IOException | RecognitionException | UndeclaredVariableException e) {
 			e.printStackTrace();
 			return null;
 		}
     }
 
+    /**
+     * Execute the workflow without holding a thread while it waits for service calls.
+     * The workflow resumes on the executor of the composite service when a reply arrives.
+     * @param workFlow the workflow to be executed
+     * @param qosRequirement the QoS requirements to be satisfied
+     * @param parameters   initial parameters for the workflow
+     * @return the future result of the workflow
+     */
+    public CompletableFuture<Object> executeWorkflowAsync(String workFlow, String qosRequirement, Object... parameters) {
+		CompletableFuture<Object> value;
+		try {
+			CompiledWorkflow compiled = service.getWorkflowCache().get(workFlow);
+
+			if (useCompiler(compiled)) {
+				value = compiled.getCompiledTaskGraph().executeAsync(qosRequirement, service, parameters);
+			} else {
+				TaskGraphInterpreter interpreter = new TaskGraphInterpreter();
+				value = interpreter.interpretAsync(compiled.getTaskGraph(),
+						qosRequirement, service, parameters);
+			}
+		} catch (IOException | RecognitionException | UndeclaredVariableException e) {
+			e.printStackTrace();
+			return CompletableFuture.completedFuture(null);
+		}
+		return value.thenApply(new Function<Object, Object>() {
+			@Override
+			public Object apply(Object result) {
+				System.out.println("Result:" + result);
+				return result;
+			}
+		});
+    }
+
+    /**
+     * Decide which engine executes this invocation, see {@link WorkflowEngineMode}
+     * @param compiled the workflow
+     * @return true to run the compiled task graph, false to interpret
+     */
+    private boolean useCompiler(CompiledWorkflow compiled) {
+		Configuration configuration = service.getConfiguration();
+		switch (configuration.engine) {
+		case COMPILER:
+			return true;
+		case TIERED:
+			return compiled.isCompiled() || compiled.countInvocation() > configuration.tierUpThreshold;
+		default:
+			return false;
+		}
+    }
 }
@@ -0,0 +1,111 @@
+package taskgraph;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import service.composite.CompositeService;
+import taskgraph.TaskGraph.CALL;
+import taskgraph.TaskGraphCompiler.Step;
+
+/**
+ * A task graph compiled by the {@link TaskGraphCompiler}. Like the task graph itself it
+ * keeps no per-invocation state and can be executed by many invocations at once.
+ */
+public class CompiledTaskGraph {
+
+    private final FrameLayout layout;
+    private final Step entry;
+
+    CompiledTaskGraph(FrameLayout layout, Step entry) {
+	this.layout = layout;
+	this.entry = entry;
+    }
+
+    public FrameLayout getLayout() {
+	return layout;
+    }
+
+    /**
+     * Execute the compiled task graph
+     * @param qosRequirement the QoS requirement used to select services
+     * @param compositeService the composite service invoking its workflow
+     * @param args the workflow parameters
+     * @return the workflow result
+     */
+    public Object execute(String qosRequirement, CompositeService compositeService, Object... args) {
+	Invocation invocation = new Invocation(new ExecutionFrame(layout), qosRequirement, compositeService, args);
+	try {
+	    invocation.execute(entry);
+	    TaskGraphInterpreter.joinAll(invocation.frame, compositeService);
+	} catch (WorkflowAbortedException e) {
+	    return e.getResult();
+	}
+	return invocation.result;
+    }
+
+    /**
+     * Execute the compiled task graph without holding a thread while a service call is
+     * running, see {@link TaskGraphInterpreter#interpretAsync}
+     * @param qosRequirement the QoS requirement used to select services
+     * @param compositeService the composite service invoking its workflow
+     * @param args the workflow parameters
+     * @return the future workflow result
+     */
+    public CompletableFuture<Object> executeAsync(String qosRequirement, CompositeService compositeService, Object... args) {
+	Invocation invocation = new Invocation(new ExecutionFrame(layout), qosRequirement, compositeService, args);
+	invocation.async = true;
+	CompletableFuture<Object> completion = new CompletableFuture<Object>();
+	resume(invocation, entry, completion);
+	return completion;
+    }
+
+    /**
+     * Execute from a step until the task graph returns or suspends at a call or a running
+     * deferred call
+     */
+    private static void resume(final Invocation invocation, Step step, final CompletableFuture<Object> completion) {
+	try {
+	    while (true) {
+		invocation.execute(step);
+		if (invocation.reply == null) {
+		    TaskGraphInterpreter.joinAll(invocation.frame, invocation.compositeService);
+		    completion.complete(invocation.result);
+		    return;
+		}
+		final CALL call = invocation.suspendedCall;
+		final Step next = invocation.resumeStep;
+		CompletableFuture<Object> reply = invocation.reply;
+		invocation.suspend(null, null, null);
+		if (!reply.isDone()) {
+		    reply.whenCompleteAsync(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object value, Throwable failure) {
+			    // A deferred call is joined when its step runs again
+			    if (call != null) {
+				if (failure != null) {
+				    completion.completeExceptionally(failure);
+				    return;
+				}
+				try {
+				    TaskGraphInterpreter.assignResult(call, value, invocation.frame, invocation.compositeService);
+				} catch (WorkflowAbortedException e) {
+				    completion.complete(e.getResult());
+				    return;
+				}
+			    }
+			    resume(invocation, next, completion);
+			}
+		    }, invocation.compositeService.getExecutor());
+		    return;
+		}
+		if (call != null)
+		    TaskGraphInterpreter.assignResult(call, reply.join(), invocation.frame, invocation.compositeService);
+		step = next;
+	    }
+	} catch (WorkflowAbortedException e) {
+	    completion.complete(e.getResult());
+	} catch (RuntimeException e) {
+	    completion.completeExceptionally(e);
+	}
+    }
+}
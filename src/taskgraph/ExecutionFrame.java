@@ -0,0 +1,313 @@
+package taskgraph;
+
+import java.util.Arrays;
+
+import taskgraph.TaskGraph.EValueType;
+import taskgraph.TaskGraph.Expression;
+
+/**
+ * Per-invocation storage for the values computed by the expressions of a task graph
+ * and for its variables. The task graph itself is shared between invocations and
+ * never written while running.
+ *
+ * When specialized, expressions and variables typed INT or BOOLEAN by {@link TaskGraphTypes}
+ * are kept in int arrays (booleans as 0/1) and are only boxed when read as an Object.
+ */
+public class ExecutionFrame {
+
+    private static final Object UNASSIGNED = new Object();
+
+    private final FrameLayout layout;
+    private final boolean specialized;
+
+    private final Object[] values;
+    private final int[] intValues;
+    private final Object[] variables;
+    private final int[] intVariables;
+
+    /**
+     * Slots written since this frame was forked, null if not a fork
+     */
+    private final boolean[] writtenValues;
+    private final boolean[] writtenVariables;
+
+    /**
+     * Constructor
+     * @param layout the frame layout, see {@link TaskGraphResolver#resolve(TaskGraph)}
+     */
+    public ExecutionFrame(FrameLayout layout) {
+	this(layout, true);
+    }
+
+    /**
+     * Constructor
+     * @param layout the frame layout, see {@link TaskGraphResolver#resolve(TaskGraph)}
+     * @param specialized false to keep every value boxed
+     */
+    public ExecutionFrame(FrameLayout layout, boolean specialized) {
+	this.layout = layout;
+	this.specialized = specialized;
+	values = new Object[layout.getValueCount()];
+	intValues = specialized ? new int[layout.getValueCount()] : null;
+	variables = new Object[layout.getVariableCount()];
+	intVariables = specialized ? new int[layout.getVariableCount()] : null;
+	Arrays.fill(variables, UNASSIGNED);
+	writtenValues = null;
+	writtenVariables = null;
+    }
+
+    private ExecutionFrame(ExecutionFrame parent) {
+	layout = parent.layout;
+	specialized = parent.specialized;
+	values = parent.values.clone();
+	intValues = specialized ? parent.intValues.clone() : null;
+	variables = parent.variables.clone();
+	intVariables = specialized ? parent.intVariables.clone() : null;
+	writtenValues = new boolean[values.length];
+	writtenVariables = new boolean[variables.length];
+    }
+
+    /**
+     * Return a private copy of this frame for a parallel branch
+     * @return the fork, see {@link #merge(ExecutionFrame)}
+     */
+    public ExecutionFrame fork() {
+	return new ExecutionFrame(this);
+    }
+
+    /**
+     * Take over everything a fork of this frame has written
+     * @param fork the fork
+     */
+    public void merge(ExecutionFrame fork) {
+	for (int slot = 0; slot < values.length; slot++) {
+	    if (fork.writtenValues[slot]) {
+		markValue(slot);
+		values[slot] = fork.values[slot];
+		if (specialized)
+		    intValues[slot] = fork.intValues[slot];
+	    }
+	}
+	for (int slot = 0; slot < variables.length; slot++) {
+	    if (fork.writtenVariables[slot]) {
+		markVariable(slot);
+		variables[slot] = fork.variables[slot];
+		if (specialized)
+		    intVariables[slot] = fork.intVariables[slot];
+	    }
+	}
+    }
+
+    private void markValue(int slot) {
+	if (writtenValues != null)
+	    writtenValues[slot] = true;
+    }
+
+    private void markVariable(int slot) {
+	if (writtenVariables != null)
+	    writtenVariables[slot] = true;
+    }
+
+    public FrameLayout getLayout() {
+	return layout;
+    }
+
+    public boolean isSpecialized() {
+	return specialized;
+    }
+
+    /**
+     * Check whether the value of an expression is kept unboxed
+     * @param task the expression
+     * @return true if unboxed
+     */
+    public boolean isPrimitive(TaskGraph task) {
+	Expression exp = (Expression) task;
+	return specialized && exp.slot >= 0 && exp.valueType != EValueType.OBJECT;
+    }
+
+    private boolean isPrimitiveVariable(int slot) {
+	return specialized && layout.getVariableType(slot) != EValueType.OBJECT;
+    }
+
+    /**
+     * Return the value computed by an expression in this invocation
+     * @param task the expression
+     * @return its current value
+     */
+    public Object get(TaskGraph task) {
+	Expression exp = (Expression) task;
+	int slot = exp.slot;
+	if (slot < 0)
+	    return exp.value;
+	if (isPrimitive(exp))
+	    return box(exp.valueType, intValues[slot]);
+	return values[slot];
+    }
+
+    /**
+     * Return the value computed by an expression as an int
+     * @param task the expression
+     * @return its current value, see {@link TaskGraphInterpreter#getIntValue(Object)}
+     */
+    public int getInt(TaskGraph task) {
+	if (isPrimitive(task))
+	    return intValues[((Expression) task).slot];
+	return TaskGraphInterpreter.getIntValue(get(task));
+    }
+
+    /**
+     * Return the value computed by an expression as a boolean
+     * @param task the expression
+     * @return its current value, see {@link TaskGraphInterpreter#getBooleanValue(Object)}
+     */
+    public boolean getBoolean(TaskGraph task) {
+	if (isPrimitive(task))
+	    return intValues[((Expression) task).slot] != 0;
+	return TaskGraphInterpreter.getBooleanValue(get(task));
+    }
+
+    /**
+     * Store the value computed by an expression in this invocation
+     * @param exp the expression
+     * @param value its new value
+     */
+    public void set(Expression exp, Object value) {
+	markValue(exp.slot);
+	if (isPrimitive(exp))
+	    intValues[exp.slot] = TaskGraphInterpreter.getIntValue(value);
+	else
+	    values[exp.slot] = value;
+    }
+
+    public void setInt(Expression exp, int value) {
+	markValue(exp.slot);
+	if (isPrimitive(exp))
+	    intValues[exp.slot] = value;
+	else
+	    values[exp.slot] = box(exp.valueType, value);
+    }
+
+    public void setBoolean(Expression exp, boolean value) {
+	markValue(exp.slot);
+	if (isPrimitive(exp))
+	    intValues[exp.slot] = value ? 1 : 0;
+	else
+	    values[exp.slot] = value;
+    }
+
+    /**
+     * Store the value of one expression as the value of another
+     * @param exp the expression to set
+     * @param from the expression to read
+     */
+    public void copy(Expression exp, TaskGraph from) {
+	markValue(exp.slot);
+	if (isPrimitive(exp) && isPrimitive(from))
+	    intValues[exp.slot] = intValues[((Expression) from).slot];
+	else
+	    set(exp, get(from));
+    }
+
+    /**
+     * Return the value of a variable
+     * @param slot the variable slot
+     * @return its value, null if it has not been assigned yet
+     */
+    public Object getVariable(int slot) {
+	Object value = variables[slot];
+	if (value == UNASSIGNED)
+	    return null;
+	if (isPrimitiveVariable(slot))
+	    return box(layout.getVariableType(slot), intVariables[slot]);
+	return value;
+    }
+
+    /**
+     * Return the value of a variable as an int
+     * @param slot the variable slot
+     * @return its value, 0 if it has not been assigned yet
+     */
+    public int getIntVariable(int slot) {
+	if (isPrimitiveVariable(slot))
+	    return intVariables[slot];
+	return TaskGraphInterpreter.getIntValue(getVariable(slot));
+    }
+
+    /**
+     * Assign a variable
+     * @param slot the variable slot
+     * @param value its new value
+     */
+    public void setVariable(int slot, Object value) {
+	markVariable(slot);
+	if (isPrimitiveVariable(slot)) {
+	    intVariables[slot] = TaskGraphInterpreter.getIntValue(value);
+	    variables[slot] = null;
+	} else {
+	    variables[slot] = value;
+	}
+    }
+
+    public void setIntVariable(int slot, int value) {
+	markVariable(slot);
+	if (isPrimitiveVariable(slot)) {
+	    intVariables[slot] = value;
+	    variables[slot] = null;
+	} else {
+	    variables[slot] = value;
+	}
+    }
+
+    /**
+     * Assign the value of an expression to a variable
+     * @param slot the variable slot
+     * @param from the expression to read
+     */
+    public void assign(int slot, TaskGraph from) {
+	markVariable(slot);
+	if (isPrimitiveVariable(slot) && isPrimitive(from)) {
+	    intVariables[slot] = intValues[((Expression) from).slot];
+	    variables[slot] = null;
+	} else {
+	    setVariable(slot, get(from));
+	}
+    }
+
+    /**
+     * Load the value of a variable as the value of an expression
+     * @param exp the expression to set
+     * @param slot the variable slot
+     */
+    public void load(Expression exp, int slot) {
+	markValue(exp.slot);
+	if (isPrimitive(exp) && isPrimitiveVariable(slot))
+	    intValues[exp.slot] = intVariables[slot];
+	else
+	    set(exp, getVariable(slot));
+    }
+
+    /**
+     * Check whether a variable is waiting for a deferred call
+     * @param slot the variable slot
+     * @return true if the variable holds a {@link PendingCall}
+     */
+    public boolean isPending(int slot) {
+	return variables[slot] instanceof PendingCall;
+    }
+
+    /**
+     * Check whether a variable has been assigned in this invocation
+     * @param slot the variable slot
+     * @return true if assigned
+     */
+    public boolean isAssigned(int slot) {
+	return variables[slot] != UNASSIGNED;
+    }
+
+    private static Object box(EValueType type, int value) {
+	if (type == EValueType.BOOLEAN)
+	    return value != 0;
+	return value;
+    }
+}
@@ -0,0 +1,59 @@
+package taskgraph;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import taskgraph.TaskGraph.EValueType;
+
+/**
+ * Shape of the {@link ExecutionFrame} of a resolved task graph:
+ * how many expression values it holds and which variable lives in which slot.
+ */
+public class FrameLayout {
+
+    private final int valueCount;
+    private final String[] variableNames;
+    private final EValueType[] variableTypes;
+    private final Map<String, Integer> variableSlots = new HashMap<String, Integer>();
+
+    /**
+     * Constructor
+     * @param valueCount the number of expression value slots
+     * @param variableNames the variable names, indexed by slot
+     * @param variableTypes the variable types, indexed by slot
+     */
+    public FrameLayout(int valueCount, String[] variableNames, EValueType[] variableTypes) {
+	this.valueCount = valueCount;
+	this.variableNames = variableNames;
+	this.variableTypes = variableTypes;
+	for (int i = 0; i < variableNames.length; i++) {
+	    variableSlots.put(variableNames[i], i);
+	}
+    }
+
+    public int getValueCount() {
+	return valueCount;
+    }
+
+    public int getVariableCount() {
+	return variableNames.length;
+    }
+
+    public String getVariableName(int slot) {
+	return variableNames[slot];
+    }
+
+    public EValueType getVariableType(int slot) {
+	return variableTypes[slot];
+    }
+
+    /**
+     * Return the slot of a variable
+     * @param name the variable name
+     * @return the slot, or -1 if the graph does not declare the variable
+     */
+    public int getVariableSlot(String name) {
+	Integer slot = variableSlots.get(name);
+	return slot == null ? -1 : slot;
+    }
+}
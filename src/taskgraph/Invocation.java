@@ -0,0 +1,89 @@
+package taskgraph;
+
+import java.util.concurrent.CompletableFuture;
+
+import service.composite.CompositeService;
+import taskgraph.TaskGraph.CALL;
+import taskgraph.TaskGraphCompiler.Step;
+
+/**
+ * State of one execution of a {@link CompiledTaskGraph}
+ */
+class Invocation {
+
+    final ExecutionFrame frame;
+    final String qosRequirement;
+    final CompositeService compositeService;
+    final Object[] args;
+    final ParallelScheduler.Group group;
+
+    int paramId;
+    Object result;
+
+    /**
+     * Suspend at service calls and running deferred calls, see {@link CompiledTaskGraph#executeAsync}
+     */
+    boolean async;
+    CALL suspendedCall;
+    CompletableFuture<Object> reply;
+    Step resumeStep;
+
+    Invocation(ExecutionFrame frame, String qosRequirement, CompositeService compositeService, Object[] args) {
+	this.frame = frame;
+	this.qosRequirement = qosRequirement;
+	this.compositeService = compositeService;
+	this.args = args;
+	this.group = null;
+    }
+
+    /**
+     * Create an invocation for a parallel branch
+     * @param parent the invocation running the parallel task
+     * @param frame the private frame of the branch
+     * @param group the branches of the parallel task
+     */
+    Invocation(Invocation parent, ExecutionFrame frame, ParallelScheduler.Group group) {
+	this.frame = frame;
+	this.qosRequirement = parent.qosRequirement;
+	this.compositeService = parent.compositeService;
+	this.args = parent.args;
+	this.group = group;
+    }
+
+    /**
+     * Stop executing until a service call completes
+     * @param call the call task, null for a deferred call
+     * @param reply the future call result
+     * @param next the step to resume with
+     * @return null, to end {@link #execute(Step)}
+     */
+    Step suspend(CALL call, CompletableFuture<Object> reply, Step next) {
+	this.suspendedCall = call;
+	this.reply = reply;
+	this.resumeStep = next;
+	return null;
+    }
+
+    /**
+     * In async mode, stop executing until a running deferred call completes
+     * @param running the future call result, null if no call is running
+     * @param step the step to execute again then
+     * @return true if suspended
+     */
+    boolean awaits(CompletableFuture<Object> running, Step step) {
+	if (!async || running == null)
+	    return false;
+	suspend(null, running, step);
+	return true;
+    }
+
+    void execute(Step step) {
+	while (step != null) {
+	    if (group != null && group.isCancelled()) {
+		// A sibling branch failed
+		return;
+	    }
+	    step = step.run(this);
+	}
+    }
+}
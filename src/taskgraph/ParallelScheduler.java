@@ -0,0 +1,197 @@
+package taskgraph;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import service.utility.Time;
+import service.utility.VirtualThreads;
+
+/**
+ * Runtime-wide scheduler for the branches of PARALLEL tasks.
+ *
+ * Branches run on virtual threads for composite services configured with VirtualThreads,
+ * if the JVM has them, otherwise on a bounded pool of daemon threads (system property
+ * <code>resep.parallel.threads</code>, default 64).
+ * The thread that reaches a PARALLEL task runs the first branch itself and, while
+ * joining, any branch the pool has not started yet, so nested PARALLEL tasks can not
+ * starve the pool.
+ *
+ * Every branch works on a private fork of the execution frame. When all branches
+ * complete, the forks are merged into the frame in branch order, so a variable
+ * assigned by several branches deterministically ends with the value of the last one.
+ * If a branch fails or ends the workflow with a TimeOutError, its siblings are
+ * cancelled, nothing is merged and the failure is rethrown.
+ */
+public class ParallelScheduler {
+
+    private static final ParallelScheduler instance = new ParallelScheduler();
+
+    /**
+     * Return the single instance
+     * @return the scheduler
+     */
+    public static ParallelScheduler getInstance() {
+	return instance;
+    }
+
+    /**
+     * One branch of a PARALLEL task
+     */
+    public interface Branch {
+
+	/**
+	 * Execute the branch
+	 * @param frame the private frame of this branch
+	 * @param group the branches of the PARALLEL task, check {@link Group#isCancelled()} between tasks
+	 */
+	void run(ExecutionFrame frame, Group group);
+    }
+
+    /**
+     * The branches of one execution of a PARALLEL task. Nested groups are cancelled with their parent.
+     */
+    public static class Group {
+	private final Group parent;
+	private volatile boolean cancelled;
+	private final Set<Thread> threads = new HashSet<Thread>();
+
+	Group(Group parent) {
+	    this.parent = parent;
+	}
+
+	public boolean isCancelled() {
+	    return cancelled || (parent != null && parent.isCancelled());
+	}
+
+	synchronized void cancel() {
+	    cancelled = true;
+	    for (Thread thread : threads)
+		thread.interrupt();
+	}
+
+	private synchronized boolean enter() {
+	    if (isCancelled())
+		return false;
+	    threads.add(Thread.currentThread());
+	    return true;
+	}
+
+	private synchronized void exit() {
+	    threads.remove(Thread.currentThread());
+	}
+    }
+
+    private final ExecutorService pool;
+
+    /**
+     * Null if the JVM has no virtual threads
+     */
+    private final ExecutorService virtualThreads = VirtualThreads.newExecutor();
+
+    private ParallelScheduler() {
+	int threads = Integer.getInteger("resep.parallel.threads", 64);
+	ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+	    private final AtomicInteger count = new AtomicInteger();
+
+	    @Override
+	    public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "parallel-branch-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+	pool.allowCoreThreadTimeOut(true);
+	this.pool = pool;
+    }
+
+    /**
+     * Run the branches of a PARALLEL task and wait for all of them
+     * @param frame the frame of the task running the PARALLEL task
+     * @param parent the group of the enclosing PARALLEL task, null at top level
+     * @param branches the branches
+     * @param virtualThreads whether to run the branches on virtual threads, if the JVM has them
+     * @throws WorkflowAbortedException if a branch ended the workflow, e.g. with a TimeOutError
+     * @throws RuntimeException if a branch failed
+     */
+    public void run(ExecutionFrame frame, Group parent, Branch[] branches, boolean virtualThreads) {
+	ExecutorService executor = virtualThreads && this.virtualThreads != null ? this.virtualThreads : pool;
+	final Group group = new Group(parent);
+	ExecutionFrame[] forks = new ExecutionFrame[branches.length];
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	FutureTask<Object>[] tasks = new FutureTask[branches.length];
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	final CompletableFuture<Void>[] finished = new CompletableFuture[branches.length];
+
+	for (int i = 0; i < branches.length; i++) {
+	    final Branch branch = branches[i];
+	    final ExecutionFrame fork = forks[i] = frame.fork();
+	    final CompletableFuture<Void> branchFinished = finished[i] = new CompletableFuture<Void>();
+	    tasks[i] = new FutureTask<Object>(new Callable<Object>() {
+		@Override
+		public Object call() {
+		    if (!group.enter())
+			return null;
+		    try {
+			branch.run(fork, group);
+		    } catch (RuntimeException | Error e) {
+			group.cancel();
+			throw e;
+		    } finally {
+			group.exit();
+		    }
+		    return null;
+		}
+	    }) {
+		@Override
+		protected void done() {
+		    branchFinished.complete(null);
+		}
+	    };
+	}
+	for (int i = 1; i < tasks.length; i++)
+	    executor.execute(Time.track(tasks[i]));
+
+	Throwable failure = null;
+	for (int i = 0; i < tasks.length; i++) {
+	    FutureTask<Object> task = tasks[i];
+	    // Runs the branch here unless a thread has already taken it
+	    task.run();
+	    try {
+		Time.await(finished[i]);
+		task.get();
+	    } catch (ExecutionException e) {
+		// The first failure in branch order wins
+		if (failure == null)
+		    failure = e.getCause();
+	    } catch (InterruptedException e) {
+		group.cancel();
+		if (failure == null)
+		    failure = new WorkflowAbortedException(null);
+	    }
+	}
+	if (group.isCancelled()) {
+	    // This thread may have been interrupted while running a cancelled branch
+	    Thread.interrupted();
+	}
+
+	if (failure instanceof RuntimeException)
+	    throw (RuntimeException) failure;
+	if (failure instanceof Error)
+	    throw (Error) failure;
+	if (group.isCancelled())
+	    throw new WorkflowAbortedException(null);
+
+	for (ExecutionFrame fork : forks)
+	    frame.merge(fork);
+    }
+}
@@ -0,0 +1,45 @@
+package taskgraph;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import service.auxiliary.TimeOutError;
+import service.utility.Time;
+
+/**
+ * Placeholder kept in a variable while the deferred service call assigned to it is running,
+ * see {@link TaskGraphDataflow}
+ */
+public class PendingCall {
+
+    private final CompletableFuture<Object> result;
+
+    public PendingCall(CompletableFuture<Object> result) {
+	this.result = result;
+    }
+
+    /**
+     * Return the future call result
+     * @return the future
+     */
+    public CompletableFuture<Object> getResult() {
+	return result;
+    }
+
+    /**
+     * Wait for the call to complete
+     * @return the call result, a TimeOutError if the wait was interrupted
+     */
+    public Object join() {
+	try {
+	    return Time.await(result);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    return new TimeOutError();
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof RuntimeException)
+		throw (RuntimeException) e.getCause();
+	    throw new RuntimeException(e.getCause());
+	}
+    }
+}
@@ -231,6 +231,12 @@ public abstract class TaskGraph {
 	private String serviceName;
 	private String operationName;
 	LinkedList<Expression> arguments = new LinkedList<TaskGraph.Expression>();
+
+	/**
+	 * The result is only read through the variable it is assigned to, see {@link TaskGraphDataflow}
+	 */
+	private boolean deferrable;
+
 	public CALL(String serviceName, String operationName) {
 	    this.taskType = ETaskType.CALL;
 	    this.serviceName = serviceName;
@@ -253,6 +259,14 @@ public abstract class TaskGraph {
 	    this.arguments.add(argument);
 	}
 
+	public boolean isDeferrable() {
+	    return deferrable;
+	}
+
+	public void setDeferrable(boolean deferrable) {
+	    this.deferrable = deferrable;
+	}
+
 
 	@Override
 	public TaskGraph clone() {
@@ -266,6 +280,19 @@ public abstract class TaskGraph {
 	protected boolean isLocal;
 	protected String varName;
 
+	/**
+	 * Frame slot of the variable, -1 if not a resolved variable access
+	 */
+	protected int varSlot = -1;
+
+	public int getVarSlot() {
+	    return varSlot;
+	}
+
+	public void setVarSlot(int varSlot) {
+	    this.varSlot = varSlot;
+	}
+
 	public void setLocal(boolean isLocal) {
 	    this.isLocal = isLocal;
 	}
@@ -506,6 +533,16 @@ public abstract class TaskGraph {
 	// Object>();
 	Object value;
 
+	/**
+	 * Index of this expression's value in an ExecutionFrame, -1 for constants
+	 */
+	int slot = -1;
+
+	/**
+	 * Static type of this expression's value, see {@link TaskGraphTypes}
+	 */
+	EValueType valueType = EValueType.OBJECT;
+
 	public void setValue(Object value) {
 	    this.value = value;
 	}
@@ -514,6 +551,22 @@ public abstract class TaskGraph {
 	    return value;
 	}
 
+	public int getSlot() {
+	    return slot;
+	}
+
+	public void setSlot(int slot) {
+	    this.slot = slot;
+	}
+
+	public EValueType getValueType() {
+	    return valueType;
+	}
+
+	public void setValueType(EValueType valueType) {
+	    this.valueType = valueType;
+	}
+
     }
 
     public static class Literal extends Expression {
@@ -775,10 +828,23 @@ public abstract class TaskGraph {
     
     public static class START extends TaskGraph {
 
+	/**
+	 * Frame shape of an invocation, null until resolved
+	 */
+	private FrameLayout layout;
+
 	public START() {
 	    this.taskType = ETaskType.START;
 	}
 
+	public FrameLayout getLayout() {
+	    return layout;
+	}
+
+	public void setLayout(FrameLayout layout) {
+	    this.layout = layout;
+	}
+
 	@Override
 	public TaskGraph clone() {
 	    START task = new START();
@@ -791,6 +857,7 @@ public abstract class TaskGraph {
     public static class PARAM extends TaskGraph {
 
 	String name;
+	int varSlot = -1;
 
 	public PARAM(String name) {
 	    this.taskType = ETaskType.PARAM;
@@ -801,6 +868,14 @@ public abstract class TaskGraph {
 	    return name;
 	}
 
+	public int getVarSlot() {
+	    return varSlot;
+	}
+
+	public void setVarSlot(int varSlot) {
+	    this.varSlot = varSlot;
+	}
+
 	@Override
 	public TaskGraph clone() {
 	    PARAM task = new PARAM(name);
@@ -879,6 +954,14 @@ public abstract class TaskGraph {
 
     }
 
+    /**
+     * Static type of an expression value. INT and BOOLEAN values are kept unboxed
+     * in the {@link ExecutionFrame}.
+     */
+    public enum EValueType {
+	OBJECT, INT, BOOLEAN
+    }
+
     public enum ETaskType {
 	LIST_START,
 	LIST_ITEM,
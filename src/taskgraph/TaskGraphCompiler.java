@@ -0,0 +1,484 @@
+package taskgraph;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntBinaryOperator;
+
+import taskgraph.TaskGraph.ARRAY_ACCESS;
+import taskgraph.TaskGraph.BinaryOp;
+import taskgraph.TaskGraph.CALL;
+import taskgraph.TaskGraph.EAssignOp;
+import taskgraph.TaskGraph.ETaskType;
+import taskgraph.TaskGraph.Expression;
+import taskgraph.TaskGraph.IF;
+import taskgraph.TaskGraph.Load;
+import taskgraph.TaskGraph.PARALLEL;
+import taskgraph.TaskGraph.PARAM;
+import taskgraph.TaskGraph.QUALIFIED_ACCESS;
+import taskgraph.TaskGraph.START;
+import taskgraph.TaskGraph.Store;
+import taskgraph.TaskGraph.TernaryOp;
+import taskgraph.TaskGraph.UnaryOp;
+
+/**
+ * Compiles a task graph into a graph of {@link Step}s, one per executable task.
+ *
+ * Each step already knows its operator, operands and successors, so running it
+ * needs neither the type switch nor the casts of the {@link TaskGraphInterpreter}.
+ * Constant tasks are skipped entirely. Both engines share the same task semantics.
+ */
+public class TaskGraphCompiler {
+
+    /**
+     * Compile a task graph
+     * @param first the START task
+     * @return the compiled graph
+     * @throws UndeclaredVariableException if the graph reads a variable that is never assigned
+     */
+    public static CompiledTaskGraph compile(START first) {
+	FrameLayout layout = TaskGraphResolver.resolve(first);
+	return new CompiledTaskGraph(layout, new TaskGraphCompiler().link(first));
+    }
+
+    private final Map<TaskGraph, Step> steps = new IdentityHashMap<TaskGraph, Step>();
+
+    private Step link(TaskGraph first) {
+	List<TaskGraph> nodes = TaskGraphResolver.nodes(first);
+	// Create all steps first, loops make successors refer back
+	for (TaskGraph node : nodes) {
+	    Step step = create(node);
+	    if (step != null)
+		steps.put(node, step);
+	}
+	for (TaskGraph node : nodes) {
+	    Step step = steps.get(node);
+	    if (step == null)
+		continue;
+	    step.next = target(node.getNext());
+	    if (step instanceof Branch) {
+		IF If = (IF) node;
+		((Branch) step).onTrue = target(If.getTrue() != null ? If.getTrue() : If.getNext());
+		((Branch) step).onFalse = target(If.getFalse() != null ? If.getFalse() : If.getNext());
+	    } else if (step instanceof Parallel) {
+		List<TaskGraph> statements = ((PARALLEL) node).getStatements();
+		Step[] branches = new Step[statements.size()];
+		for (int i = 0; i < branches.length; i++)
+		    branches[i] = target(statements.get(i));
+		((Parallel) step).branches = branches;
+	    }
+	}
+	return target(first);
+    }
+
+    /**
+     * Return the step that executes a task, skipping the tasks that do nothing at run time
+     */
+    private Step target(TaskGraph task) {
+	while (task != null && (task.getTaskType() == ETaskType.START || task.getTaskType() == ETaskType.LITERAL))
+	    task = task.getNext();
+	return task == null ? null : steps.get(task);
+    }
+
+    private Step create(final TaskGraph task) {
+	switch (task.getTaskType()) {
+	case START:
+	case LITERAL:
+	    return null;
+	case PARAM:
+	    final int paramSlot = ((PARAM) task).getVarSlot();
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    invocation.frame.setVariable(paramSlot, invocation.args[invocation.paramId++]);
+		    return next;
+		}
+	    };
+	case IF:
+	    return new Branch((IF) task);
+	case TERNARY_OP:
+	    final TernaryOp ternaryOp = (TernaryOp) task;
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    ExecutionFrame frame = invocation.frame;
+		    frame.copy(ternaryOp, frame.getBoolean(ternaryOp.getPrev()) ? ternaryOp.getTrue() : ternaryOp.getFalse());
+		    return next;
+		}
+	    };
+	case UNARY_OP:
+	    return unary((UnaryOp) task);
+	case BINARY_OP:
+	    return binary((BinaryOp) task);
+	case STORE:
+	    return store((Store) task);
+	case LOAD:
+	    final Load load = (Load) task;
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    if (invocation.awaits(TaskGraphInterpreter.running(invocation.frame, load.getVarSlot()), this))
+			return null;
+		    TaskGraphInterpreter.load(load, invocation.frame, invocation.compositeService);
+		    return next;
+		}
+	    };
+	case ARRAY_ACCESS:
+	    final ARRAY_ACCESS arrayAccess = (ARRAY_ACCESS) task;
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    invocation.frame.set(arrayAccess, TaskGraphInterpreter.readArray(arrayAccess, invocation.frame));
+		    return next;
+		}
+	    };
+	case QUALIFIED_ACCESS:
+	    final QUALIFIED_ACCESS qualifiedAccess = (QUALIFIED_ACCESS) task;
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    try {
+			invocation.frame.set(qualifiedAccess, TaskGraphInterpreter.readMember(qualifiedAccess, invocation.frame));
+		    } catch (NoSuchFieldException | SecurityException | IllegalAccessException e) {
+			e.printStackTrace();
+			invocation.result = null;
+			return null;
+		    }
+		    return next;
+		}
+	    };
+	case CALL:
+	    final CALL call = (CALL) task;
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    if (TaskGraphInterpreter.isDeferred(call, invocation.compositeService)) {
+			invocation.frame.set(call, TaskGraphInterpreter.invokeDeferred(call, invocation.frame, invocation.qosRequirement, invocation.compositeService));
+			return next;
+		    }
+		    if (invocation.async && !call.getServiceName().equalsIgnoreCase("this"))
+			return invocation.suspend(call, TaskGraphInterpreter.invokeAsync(call, invocation.frame, invocation.qosRequirement, invocation.compositeService), next);
+		    Object result = TaskGraphInterpreter.invoke(call, invocation.frame, invocation.qosRequirement, invocation.compositeService);
+		    TaskGraphInterpreter.assignResult(call, result, invocation.frame, invocation.compositeService);
+		    return next;
+		}
+	    };
+	case PARALLEL:
+	    return new Parallel();
+	case RETURN:
+	    final TaskGraph last = task.getPrev();
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    // The result may need a deferred call
+		    if (invocation.awaits(TaskGraphInterpreter.running(invocation.frame), this))
+			return null;
+		    if (last != null && last instanceof Expression)
+			invocation.result = invocation.frame.get(last);
+		    return null;
+		}
+	    };
+	default:
+	    // Fail where the interpreter would, not when compiling
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    throw new RuntimeException("Task type is not handled:" + task.getTaskType().toString());
+		}
+	    };
+	}
+    }
+
+    private Step unary(final UnaryOp op) {
+	final TaskGraph operand = op.getPrev();
+	switch (op.getUnaryOp()) {
+	case NOT:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    invocation.frame.setBoolean(op, !invocation.frame.getBoolean(operand));
+		    return next;
+		}
+	    };
+	case PLUS:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    invocation.frame.setInt(op, +invocation.frame.getInt(operand));
+		    return next;
+		}
+	    };
+	case MINUS:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    invocation.frame.setInt(op, -invocation.frame.getInt(operand));
+		    return next;
+		}
+	    };
+	case PREFIX_INCREMENT:
+	case PREFIX_DECREMENT:
+	case POSTFIX_INCREMENT:
+	case POSTFIX_DECREMENT:
+	    if (operand.getTaskType() != ETaskType.LOAD)
+		break;
+	    final int varSlot = ((Load) operand).getVarSlot();
+	    final int delta = op.getUnaryOp() == TaskGraph.EUnaryOp.PREFIX_INCREMENT || op.getUnaryOp() == TaskGraph.EUnaryOp.POSTFIX_INCREMENT ? 1 : -1;
+	    final boolean prefix = op.getUnaryOp() == TaskGraph.EUnaryOp.PREFIX_INCREMENT || op.getUnaryOp() == TaskGraph.EUnaryOp.PREFIX_DECREMENT;
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    ExecutionFrame frame = invocation.frame;
+		    int value = frame.getInt(operand);
+		    frame.setInt(op, prefix ? value + delta : value);
+		    frame.setIntVariable(varSlot, value + delta);
+		    return next;
+		}
+	    };
+	default:
+	    break;
+	}
+	return new Step() {
+	    @Override
+	    Step run(Invocation invocation) {
+		invocation.frame.set(op, null);
+		return next;
+	    }
+	};
+    }
+
+    private Step binary(final BinaryOp binaryOp) {
+	final TaskGraph left = binaryOp.getLeft();
+	final TaskGraph right = binaryOp.getRight();
+	switch (binaryOp.getBinaryOp()) {
+	case LOGIC_OR:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    ExecutionFrame frame = invocation.frame;
+		    frame.setBoolean(binaryOp, frame.getBoolean(left) || frame.getBoolean(right));
+		    return next;
+		}
+	    };
+	case IMPLY:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    ExecutionFrame frame = invocation.frame;
+		    frame.setBoolean(binaryOp, !frame.getBoolean(left) || frame.getBoolean(right));
+		    return next;
+		}
+	    };
+	case LOGIC_AND:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    ExecutionFrame frame = invocation.frame;
+		    frame.setBoolean(binaryOp, frame.getBoolean(left) && frame.getBoolean(right));
+		    return next;
+		}
+	    };
+	case BITWISE_EXCL_OR:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    ExecutionFrame frame = invocation.frame;
+		    frame.setBoolean(binaryOp, frame.getBoolean(left) ^ frame.getBoolean(right));
+		    return next;
+		}
+	    };
+	case EQUAL:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    invocation.frame.setBoolean(binaryOp, TaskGraphInterpreter.isEqual(invocation.frame, left, right));
+		    return next;
+		}
+	    };
+	case NOT_EQUAL:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    ExecutionFrame frame = invocation.frame;
+		    frame.setBoolean(binaryOp, frame.getInt(left) != frame.getInt(right));
+		    return next;
+		}
+	    };
+	case LT:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    ExecutionFrame frame = invocation.frame;
+		    frame.setBoolean(binaryOp, frame.getInt(left) < frame.getInt(right));
+		    return next;
+		}
+	    };
+	case GT:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    ExecutionFrame frame = invocation.frame;
+		    frame.setBoolean(binaryOp, frame.getInt(left) > frame.getInt(right));
+		    return next;
+		}
+	    };
+	case LT_EQUAL:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    ExecutionFrame frame = invocation.frame;
+		    frame.setBoolean(binaryOp, frame.getInt(left) <= frame.getInt(right));
+		    return next;
+		}
+	    };
+	case GT_EQUAL:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    ExecutionFrame frame = invocation.frame;
+		    frame.setBoolean(binaryOp, frame.getInt(left) >= frame.getInt(right));
+		    return next;
+		}
+	    };
+	case BITWISE_INCL_OR:
+	    return arithmetic(binaryOp, (a, b) -> a | b);
+	case BITWISE_AND:
+	    return arithmetic(binaryOp, (a, b) -> a & b);
+	case MIN:
+	    return arithmetic(binaryOp, Math::min);
+	case MAX:
+	    return arithmetic(binaryOp, Math::max);
+	case LEFT_SHIFT:
+	    return arithmetic(binaryOp, (a, b) -> a << b);
+	case RIGHT_SHIFT:
+	    return arithmetic(binaryOp, (a, b) -> a >> b);
+	case PLUS:
+	    return arithmetic(binaryOp, (a, b) -> a + b);
+	case MINUS:
+	    return arithmetic(binaryOp, (a, b) -> a - b);
+	case MULT:
+	    return arithmetic(binaryOp, (a, b) -> a * b);
+	case DIVISION:
+	    return arithmetic(binaryOp, (a, b) -> a / b);
+	case REMAINDER:
+	    return arithmetic(binaryOp, (a, b) -> a % b);
+	default:
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    invocation.frame.set(binaryOp, null);
+		    return next;
+		}
+	    };
+	}
+    }
+
+    private Step arithmetic(final BinaryOp binaryOp, final IntBinaryOperator operator) {
+	final TaskGraph left = binaryOp.getLeft();
+	final TaskGraph right = binaryOp.getRight();
+	return new Step() {
+	    @Override
+	    Step run(Invocation invocation) {
+		ExecutionFrame frame = invocation.frame;
+		frame.setInt(binaryOp, operator.applyAsInt(frame.getInt(left), frame.getInt(right)));
+		return next;
+	    }
+	};
+    }
+
+    private Step store(final Store store) {
+	if (store.getVarName() == null) {
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    invocation.frame.set(store, TaskGraphInterpreter.storeMember(store, invocation.frame));
+		    return next;
+		}
+	    };
+	}
+	final int varSlot = store.getVarSlot();
+	final TaskGraph right = store.getRightExpression();
+	if (store.getAssignOp() == EAssignOp.ASSIGN) {
+	    return new Step() {
+		@Override
+		Step run(Invocation invocation) {
+		    ExecutionFrame frame = invocation.frame;
+		    if (frame.isPending(varSlot)) {
+			if (invocation.awaits(TaskGraphInterpreter.running(frame, varSlot), this))
+			    return null;
+			TaskGraphInterpreter.join(frame, varSlot, invocation.compositeService);
+		    }
+		    frame.copy(store, right);
+		    frame.assign(varSlot, store);
+		    return next;
+		}
+	    };
+	}
+	final EAssignOp assignOp = store.getAssignOp();
+	return new Step() {
+	    @Override
+	    Step run(Invocation invocation) {
+		ExecutionFrame frame = invocation.frame;
+		if (frame.isPending(varSlot)) {
+		    if (invocation.awaits(TaskGraphInterpreter.running(frame, varSlot), this))
+			return null;
+		    TaskGraphInterpreter.join(frame, varSlot, invocation.compositeService);
+		}
+		frame.setInt(store, TaskGraphInterpreter.handleAssignOperator(assignOp, frame.getIntVariable(varSlot), frame.getInt(right)));
+		frame.assign(varSlot, store);
+		return next;
+	    }
+	};
+    }
+
+    /**
+     * A compiled task. Returns the step to run next, null when the invocation is over.
+     */
+    static abstract class Step {
+	Step next;
+
+	abstract Step run(Invocation invocation);
+    }
+
+    private static class Branch extends Step {
+	private final IF If;
+	Step onTrue;
+	Step onFalse;
+
+	Branch(IF If) {
+	    this.If = If;
+	}
+
+	@Override
+	Step run(Invocation invocation) {
+	    boolean result = invocation.frame.getBoolean(If.getPrev());
+	    invocation.frame.setBoolean(If, result);
+	    return result ? onTrue : onFalse;
+	}
+    }
+
+    private static class Parallel extends Step {
+	Step[] branches;
+
+	@Override
+	Step run(final Invocation invocation) {
+	    // Branches see the results of all calls made before them
+	    if (invocation.awaits(TaskGraphInterpreter.running(invocation.frame), this))
+		return null;
+	    TaskGraphInterpreter.joinAll(invocation.frame, invocation.compositeService);
+	    ParallelScheduler.Branch[] runnables = new ParallelScheduler.Branch[branches.length];
+	    for (int i = 0; i < branches.length; i++) {
+		final Step branch = branches[i];
+		runnables[i] = new ParallelScheduler.Branch() {
+		    @Override
+		    public void run(ExecutionFrame frame, ParallelScheduler.Group group) {
+			// Each branch ends in its own RETURN
+			new Invocation(invocation, frame, group).execute(branch);
+		    }
+		};
+	    }
+	    ParallelScheduler.getInstance().run(invocation.frame, invocation.group, runnables, invocation.compositeService.getConfiguration().virtualThreads);
+	    return next;
+	}
+    }
+}
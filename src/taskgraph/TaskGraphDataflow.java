@@ -0,0 +1,104 @@
+package taskgraph;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import taskgraph.TaskGraph.ARRAY_ACCESS;
+import taskgraph.TaskGraph.BinaryOp;
+import taskgraph.TaskGraph.CALL;
+import taskgraph.TaskGraph.EAssignOp;
+import taskgraph.TaskGraph.ETaskType;
+import taskgraph.TaskGraph.IF;
+import taskgraph.TaskGraph.PARALLEL;
+import taskgraph.TaskGraph.Store;
+import taskgraph.TaskGraph.TernaryOp;
+
+/**
+ * Def-use analysis of service calls.
+ *
+ * A remote call of the form <code>x = Service.op(...)</code> whose value is used by nothing
+ * but that assignment only matters where <code>x</code> is read next. Such a call is marked
+ * deferrable: when enabled, it is issued without waiting and the variable holds a
+ * {@link PendingCall} until a load, an assignment or the end of the workflow joins it.
+ * Calls that use the variable as an argument load it, so dependent calls still wait for
+ * their inputs while independent calls overlap.
+ */
+public class TaskGraphDataflow {
+
+    /**
+     * Mark the deferrable calls of a task graph
+     * @param nodes the task graph nodes, see {@link TaskGraphResolver#nodes(TaskGraph)}
+     */
+    public static void analyze(List<TaskGraph> nodes) {
+	Map<TaskGraph, Integer> uses = new IdentityHashMap<TaskGraph, Integer>();
+	Set<TaskGraph> inBranches = Collections.newSetFromMap(new IdentityHashMap<TaskGraph, Boolean>());
+
+	for (TaskGraph node : nodes) {
+	    for (TaskGraph operand : operands(node)) {
+		if (operand != null)
+		    uses.merge(operand, 1, Integer::sum);
+	    }
+	    if (node instanceof PARALLEL) {
+		// Branches already run concurrently
+		Deque<TaskGraph> pending = new ArrayDeque<TaskGraph>(((PARALLEL) node).getStatements());
+		while (!pending.isEmpty()) {
+		    TaskGraph task = pending.pop();
+		    if (task.getTaskType() == ETaskType.RETURN || !inBranches.add(task))
+			continue;
+		    TaskGraph[] successors = task instanceof IF
+			    ? new TaskGraph[] { task.getNext(), ((IF) task).getTrue(), ((IF) task).getFalse() }
+			    : new TaskGraph[] { task.getNext() };
+		    for (TaskGraph successor : successors) {
+			if (successor != null)
+			    pending.push(successor);
+		    }
+		}
+	    }
+	}
+
+	for (TaskGraph node : nodes) {
+	    if (!(node instanceof CALL))
+		continue;
+	    CALL call = (CALL) node;
+	    TaskGraph next = call.getNext();
+	    call.setDeferrable(!call.getServiceName().equalsIgnoreCase("this")
+		    && !inBranches.contains(call)
+		    && next instanceof Store
+		    && ((Store) next).getVarName() != null
+		    && ((Store) next).getAssignOp() == EAssignOp.ASSIGN
+		    && ((Store) next).getRightExpression() == call
+		    && uses.getOrDefault(call, 0) == 1
+		    && !uses.containsKey(next));
+	}
+    }
+
+    /**
+     * Return the tasks whose values a task reads
+     */
+    private static TaskGraph[] operands(TaskGraph node) {
+	switch (node.getTaskType()) {
+	case BINARY_OP:
+	    return new TaskGraph[] { ((BinaryOp) node).getLeft(), ((BinaryOp) node).getRight() };
+	case STORE:
+	    return new TaskGraph[] { ((Store) node).getRightExpression(), ((Store) node).getVarName() == null ? node.getPrev() : null };
+	case TERNARY_OP:
+	    return new TaskGraph[] { node.getPrev(), ((TernaryOp) node).getTrue(), ((TernaryOp) node).getFalse() };
+	case ARRAY_ACCESS:
+	    return new TaskGraph[] { node.getPrev(), ((ARRAY_ACCESS) node).getIndex() };
+	case CALL:
+	    return ((CALL) node).getArguments().toArray(new TaskGraph[0]);
+	case IF:
+	case UNARY_OP:
+	case QUALIFIED_ACCESS:
+	case RETURN:
+	    return new TaskGraph[] { node.getPrev() };
+	default:
+	    return new TaskGraph[0];
+	}
+    }
+}
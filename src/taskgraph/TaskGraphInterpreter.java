@@ -5,13 +5,10 @@ import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import service.auxiliary.LocalOperation;
 import service.auxiliary.ServiceDescription;
@@ -37,7 +34,38 @@ import taskgraph.TaskGraph.UnaryOp;
 
 public class TaskGraphInterpreter {
 
-    private HashMap<String, Object> heap = new HashMap<String, Object>();
+    /**
+     * Variables to assign before the task graph starts, see {@link #setHeap(HashMap)}
+     */
+    private HashMap<String, Object> presetVariables;
+
+    /**
+     * Values of the task graph expressions and variables for this invocation
+     */
+    private ExecutionFrame frame;
+
+    /**
+     * The PARALLEL branches this interpreter runs one of, null at top level
+     */
+    private ParallelScheduler.Group group;
+
+    /**
+     * Keep int and boolean values unboxed, see {@link ExecutionFrame}
+     */
+    private boolean specialized = true;
+
+    /**
+     * Suspend at service calls instead of waiting, see {@link #interpretAsync}
+     */
+    private boolean async;
+
+    /**
+     * The call the interpretation is suspended at, null at a running deferred call, the
+     * future result it waits for and the task to continue with
+     */
+    private CALL suspendedCall;
+    private CompletableFuture<Object> reply;
+    private TaskGraph resumeTask;
 
     AbstractServiceClient serviceClient;
     // AbstractServiceClient registryServiceClient = new
@@ -47,16 +75,44 @@ public class TaskGraphInterpreter {
     //SDCache sdCache;
 
     /**
-     * Return the whole heap
+     * Return the assigned variables of the current interpretation
      * 
-     * @return heap map
+     * @return heap map, a copy
      */
     public HashMap<String, Object> getHeap() {
+	HashMap<String, Object> heap = new HashMap<String, Object>();
+	if (frame != null) {
+	    FrameLayout layout = frame.getLayout();
+	    for (int slot = 0; slot < layout.getVariableCount(); slot++) {
+		if (frame.isAssigned(slot))
+		    heap.put(layout.getVariableName(slot), frame.getVariable(slot));
+	    }
+	}
 	return heap;
     }
 
+    /**
+     * Set variables to be assigned when the next interpretation starts.
+     * Names the task graph does not declare are ignored.
+     * 
+     * @param heap variable values by name
+     */
     public void setHeap(HashMap<String, Object> heap) {
-	this.heap = heap;
+	this.presetVariables = heap;
+    }
+
+    public boolean isSpecialized() {
+	return specialized;
+    }
+
+    /**
+     * Enable or disable unboxed evaluation of int and boolean expressions.
+     * Both modes compute the same results.
+     * 
+     * @param specialized false to evaluate every expression boxed
+     */
+    public void setSpecialized(boolean specialized) {
+	this.specialized = specialized;
     }
 
     /**
@@ -67,14 +123,41 @@ public class TaskGraphInterpreter {
      * @return resulting object
      */
     public Object getHeapObject(String name) {
-	return heap.get(name);
+	int slot = frame != null ? frame.getLayout().getVariableSlot(name) : -1;
+	return slot < 0 ? null : frame.getVariable(slot);
     }
 
     /*
      * Each template object have its own ID, which can be used to set/get data variables For global section 0 will be used
      */
     public Object interpret(TaskGraph first, String qosRequirement, final CompositeService compositeService, final Object... args) {
+	start(first, qosRequirement, compositeService);
+	try {
+	    Object result = execute(first, args);
+	    joinAll(frame, compositeService);
+	    return result;
+	} catch (WorkflowAbortedException e) {
+	    return e.getResult();
+	}
+    }
+
+    /**
+     * Interpret a task graph without holding a thread while a service call is running.
+     * At a call, or at a variable whose deferred call is still running, the interpretation
+     * suspends; it resumes on the executor of the composite service when the reply arrives.
+     * PARALLEL branches are still interpreted synchronously.
+     * 
+     * @return the future result of the task graph
+     */
+    public CompletableFuture<Object> interpretAsync(TaskGraph first, String qosRequirement, CompositeService compositeService, Object... args) {
+	start(first, qosRequirement, compositeService);
+	this.async = true;
+	CompletableFuture<Object> completion = new CompletableFuture<Object>();
+	resume(first, args, completion);
+	return completion;
+    }
 
+    private void start(TaskGraph first, String qosRequirement, CompositeService compositeService) {
 	if (first == null) {
 	    System.err.println("Interpreter received null taskgraph");
 	}
@@ -90,6 +173,67 @@ public class TaskGraphInterpreter {
 	this.qosRequirement = qosRequirement;
 	this.compositeService = compositeService;
 	//this.sdCache = cache;
+	this.frame = new ExecutionFrame(TaskGraphResolver.resolve(first), specialized);
+	if (presetVariables != null) {
+	    for (String name : presetVariables.keySet()) {
+		int slot = frame.getLayout().getVariableSlot(name);
+		if (slot >= 0)
+		    frame.setVariable(slot, presetVariables.get(name));
+	    }
+	}
+    }
+
+    /**
+     * Interpret from a task until the task graph returns or suspends at a call
+     */
+    private void resume(TaskGraph from, final Object[] args, final CompletableFuture<Object> completion) {
+	try {
+	    while (true) {
+		Object result = execute(from, args);
+		if (reply == null) {
+		    joinAll(frame, compositeService);
+		    completion.complete(result);
+		    return;
+		}
+		final CALL call = suspendedCall;
+		final TaskGraph next = resumeTask;
+		CompletableFuture<Object> callResult = reply;
+		suspendedCall = null;
+		reply = null;
+		resumeTask = null;
+		if (!callResult.isDone()) {
+		    callResult.whenCompleteAsync(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object value, Throwable failure) {
+			    if (call != null) {
+				if (failure != null) {
+				    completion.completeExceptionally(failure);
+				    return;
+				}
+				try {
+				    assignResult(call, value, frame, compositeService);
+				} catch (WorkflowAbortedException e) {
+				    completion.complete(e.getResult());
+				    return;
+				}
+			    }
+			    resume(next, args, completion);
+			}
+		    }, compositeService.getExecutor());
+		    return;
+		}
+		if (call != null)
+		    assignResult(call, callResult.join(), frame, compositeService);
+		from = next;
+	    }
+	} catch (WorkflowAbortedException e) {
+	    completion.complete(e.getResult());
+	} catch (RuntimeException e) {
+	    completion.completeExceptionally(e);
+	}
+    }
+
+    private Object execute(TaskGraph first, final Object... args) {
 	// Start from global declaration which has id = 0 in taskGraphs
 
 	TaskGraph CT = first;
@@ -98,6 +242,10 @@ public class TaskGraphInterpreter {
 	List<Object> list = null;
 	int paramId = 0;
 	while (CT.getTaskType() != ETaskType.RETURN) {
+	    if (group != null && group.isCancelled()) {
+		// A sibling branch failed
+		return null;
+	    }
 	    // System.out.println(CT);
 	    switch (CT.getTaskType()) {
 	    case START:
@@ -105,7 +253,7 @@ public class TaskGraphInterpreter {
 		break;
 	    case PARAM:
 		PARAM param = (PARAM) CT;
-		heap.put(param.getName(), args[paramId++]);
+		frame.setVariable(param.getVarSlot(), args[paramId++]);
 		CT = CT.getNext();
 		break;
 	    /*
@@ -125,7 +273,7 @@ public class TaskGraphInterpreter {
 	    case IF:
 		boolean expResult = getBooleanValue(CT.getPrev());
 		IF If = (IF) CT;
-		If.setValue(expResult);
+		frame.setBoolean(If, expResult);
 		if (expResult) {
 		    CT = If.getTrue() != null ? If.getTrue() : If.getNext();
 		} else if (!expResult) {
@@ -136,159 +284,160 @@ public class TaskGraphInterpreter {
 		boolean ternaryResult = getBooleanValue(CT.getPrev());
 		TernaryOp ternaryOp = (TernaryOp) CT;
 		if (ternaryResult) {
-		    ternaryOp.setValue(((Expression) ternaryOp.getTrue()).getValue());
+		    frame.copy(ternaryOp, ternaryOp.getTrue());
 		} else {
-		    ternaryOp.setValue(((Expression) ternaryOp.getFalse()).getValue());
+		    frame.copy(ternaryOp, ternaryOp.getFalse());
 		}
 		CT = CT.getNext();
 		break;
 	    case UNARY_OP:
 
 		UnaryOp op = (UnaryOp) CT;
-		Object unaryResult = null;
 
 		switch (op.getUnaryOp()) {
 		case NOT:
-		    unaryResult = !getBooleanValue(CT.getPrev());
+		    frame.setBoolean(op, !getBooleanValue(CT.getPrev()));
 		    break;
 		case PLUS:
-		    unaryResult = +getIntValue(CT.getPrev());
+		    frame.setInt(op, +getIntValue(CT.getPrev()));
 		    break;
 		case MINUS:
-		    unaryResult = -getIntValue(CT.getPrev());
+		    frame.setInt(op, -getIntValue(CT.getPrev()));
 		    break;
 		case POSTFIX_DECREMENT:
-		    if ((CT.getPrev()) instanceof Load) {
-			String varName = ((Load) CT.getPrev()).getVarName();
-			int value = (int) ((Load) CT.getPrev()).getValue();
-			unaryResult = value;
+		    if (CT.getPrev().getTaskType() == ETaskType.LOAD) {
+			int varSlot = ((Load) CT.getPrev()).getVarSlot();
+			int value = getIntValue(CT.getPrev());
+			frame.setInt(op, value);
 			value--;
-			heap.put(varName, value);
+			frame.setIntVariable(varSlot, value);
+		    } else {
+			frame.set(op, null);
 		    }
 		    break;
 		case POSTFIX_INCREMENT:
-		    if ((CT.getPrev()) instanceof Load) {
-			String varName = ((Load) CT.getPrev()).getVarName();
-			int value = (int) ((Load) CT.getPrev()).getValue();
-			unaryResult = value;
+		    if (CT.getPrev().getTaskType() == ETaskType.LOAD) {
+			int varSlot = ((Load) CT.getPrev()).getVarSlot();
+			int value = getIntValue(CT.getPrev());
+			frame.setInt(op, value);
 			value++;
-			heap.put(varName, value);
+			frame.setIntVariable(varSlot, value);
+		    } else {
+			frame.set(op, null);
 		    }
 		    break;
 		case PREFIX_INCREMENT:
-		    if ((CT.getPrev()) instanceof Load) {
-			String varName = ((Load) CT.getPrev()).getVarName();
-			int value = (int) ((Load) CT.getPrev()).getValue();
+		    if (CT.getPrev().getTaskType() == ETaskType.LOAD) {
+			int varSlot = ((Load) CT.getPrev()).getVarSlot();
+			int value = getIntValue(CT.getPrev());
 			value++;
-			unaryResult = value;
-			heap.put(varName, value);
+			frame.setInt(op, value);
+			frame.setIntVariable(varSlot, value);
+		    } else {
+			frame.set(op, null);
 		    }
 		    break;
 		case PREFIX_DECREMENT:
-		    if ((CT.getPrev()) instanceof Load) {
-			String varName = ((Load) CT.getPrev()).getVarName();
-			int value = (int) ((Load) CT.getPrev()).getValue();
+		    if (CT.getPrev().getTaskType() == ETaskType.LOAD) {
+			int varSlot = ((Load) CT.getPrev()).getVarSlot();
+			int value = getIntValue(CT.getPrev());
 			value--;
-			unaryResult = value;
-			heap.put(varName, value);
+			frame.setInt(op, value);
+			frame.setIntVariable(varSlot, value);
+		    } else {
+			frame.set(op, null);
 		    }
 		    break;
 
 		default:
+		    frame.set(op, null);
 		    break;
 		}
-		op.setValue(unaryResult);
 		CT = CT.getNext();
 		break;
 	    case BINARY_OP:
 		BinaryOp binaryOp = (BinaryOp) CT;
-		Object bExpResult = null;
+		TaskGraph left = binaryOp.getLeft();
+		TaskGraph right = binaryOp.getRight();
 
 		switch (binaryOp.getBinaryOp()) {
 		case LOGIC_OR:
-		    bExpResult = getBooleanValue(binaryOp.getLeft()) || getBooleanValue(binaryOp.getRight());
+		    frame.setBoolean(binaryOp, getBooleanValue(left) || getBooleanValue(right));
 		    break;
 		// case OR:
 		// expResult = getBooleanValue(op.getLeft()) &&
 		// getBooleanValue(op.getRight());
 		// break;
 		case IMPLY:
-		    bExpResult = !getBooleanValue(binaryOp.getLeft()) || getBooleanValue(binaryOp.getRight());
+		    frame.setBoolean(binaryOp, !getBooleanValue(left) || getBooleanValue(right));
 		    break;
 		case LOGIC_AND:
-		    bExpResult = getBooleanValue(binaryOp.getLeft()) && getBooleanValue(binaryOp.getRight());
+		    frame.setBoolean(binaryOp, getBooleanValue(left) && getBooleanValue(right));
 		    break;
 		// case AND:
 		// expResult = getBooleanValue(op.getLeft()) &&
 		// getBooleanValue(op.getRight());
 		// break;
 		case BITWISE_INCL_OR:
-		    bExpResult = getIntValue(binaryOp.getLeft()) | getIntValue(binaryOp.getRight());
+		    frame.setInt(binaryOp, getIntValue(left) | getIntValue(right));
 		    break;
 		case BITWISE_EXCL_OR:
-		    bExpResult = getBooleanValue(binaryOp.getLeft()) ^ getBooleanValue(binaryOp.getRight());
+		    frame.setBoolean(binaryOp, getBooleanValue(left) ^ getBooleanValue(right));
 		    break;
 		case BITWISE_AND:
-		    bExpResult = getIntValue(binaryOp.getLeft()) & getIntValue(binaryOp.getRight());
+		    frame.setInt(binaryOp, getIntValue(left) & getIntValue(right));
 		    break;
 		case EQUAL:
-		    Object leftValue = ((Expression) binaryOp.getLeft()).getValue();
-		    Object rightValue = ((Expression) binaryOp.getRight()).getValue();
-		    if (leftValue instanceof TimeOutError && rightValue instanceof TimeOutError)
-			bExpResult = true;
-		    else if (leftValue instanceof TimeOutError || rightValue instanceof TimeOutError)
-			bExpResult = false;
-		    else
-			bExpResult = getIntValue(binaryOp.getLeft()) == (getIntValue(binaryOp.getRight()));
+		    frame.setBoolean(binaryOp, isEqual(frame, left, right));
 		    break;
 		case NOT_EQUAL:
-		    bExpResult = getIntValue(binaryOp.getLeft()) != (getIntValue(binaryOp.getRight()));
+		    frame.setBoolean(binaryOp, getIntValue(left) != getIntValue(right));
 		    break;
 		case LT:
-		    bExpResult = getIntValue(binaryOp.getLeft()) < getIntValue(binaryOp.getRight());
+		    frame.setBoolean(binaryOp, getIntValue(left) < getIntValue(right));
 		    break;
 		case GT:
-		    bExpResult = getIntValue(binaryOp.getLeft()) > getIntValue(binaryOp.getRight());
+		    frame.setBoolean(binaryOp, getIntValue(left) > getIntValue(right));
 		    break;
 		case LT_EQUAL:
-		    bExpResult = getIntValue(binaryOp.getLeft()) <= getIntValue(binaryOp.getRight());
+		    frame.setBoolean(binaryOp, getIntValue(left) <= getIntValue(right));
 		    break;
 		case GT_EQUAL:
-		    bExpResult = getIntValue(binaryOp.getLeft()) >= getIntValue(binaryOp.getRight());
+		    frame.setBoolean(binaryOp, getIntValue(left) >= getIntValue(right));
 		    break;
 		case MIN:
-		    bExpResult = Math.min(getIntValue(binaryOp.getLeft()), getIntValue(binaryOp.getRight()));
+		    frame.setInt(binaryOp, Math.min(getIntValue(left), getIntValue(right)));
 		    break;
 		case MAX:
-		    bExpResult = Math.max(getIntValue(binaryOp.getLeft()), getIntValue(binaryOp.getRight()));
+		    frame.setInt(binaryOp, Math.max(getIntValue(left), getIntValue(right)));
 		    break;
 		case LEFT_SHIFT:
-		    bExpResult = getIntValue(binaryOp.getLeft()) << getIntValue(binaryOp.getRight());
+		    frame.setInt(binaryOp, getIntValue(left) << getIntValue(right));
 		    break;
 		case RIGHT_SHIFT:
-		    bExpResult = getIntValue(binaryOp.getLeft()) >> getIntValue(binaryOp.getRight());
+		    frame.setInt(binaryOp, getIntValue(left) >> getIntValue(right));
 		    break;
 		case PLUS:
-		    bExpResult = getIntValue(binaryOp.getLeft()) + getIntValue(binaryOp.getRight());
+		    frame.setInt(binaryOp, getIntValue(left) + getIntValue(right));
 		    break;
 		case MINUS:
-		    bExpResult = getIntValue(binaryOp.getLeft()) - getIntValue(binaryOp.getRight());
+		    frame.setInt(binaryOp, getIntValue(left) - getIntValue(right));
 		    break;
 		case MULT:
-		    bExpResult = getIntValue(binaryOp.getLeft()) * getIntValue(binaryOp.getRight());
+		    frame.setInt(binaryOp, getIntValue(left) * getIntValue(right));
 		    break;
 		case DIVISION:
-		    bExpResult = getIntValue(binaryOp.getLeft()) / getIntValue(binaryOp.getRight());
+		    frame.setInt(binaryOp, getIntValue(left) / getIntValue(right));
 		    break;
 		case REMAINDER:
-		    bExpResult = getIntValue(binaryOp.getLeft()) % getIntValue(binaryOp.getRight());
+		    frame.setInt(binaryOp, getIntValue(left) % getIntValue(right));
 		    break;
 
 		default:
+		    frame.set(binaryOp, null);
 		    break;
 		}
 
-		binaryOp.setValue(bExpResult);
 		CT = CT.getNext();
 
 		break;
@@ -296,138 +445,89 @@ public class TaskGraphInterpreter {
 
 		Store store = (Store) CT;
 		String varName = store.getVarName();
-		Object rightValue = ((Expression) store.getRightExpression()).getValue();
-		Object result = null;
 		if (varName != null) {
-		    Object value = ((Expression) store.getPrev()).getValue();
-
-		    Object leftValue = heap.get(varName);
-		    result = handleAssignOperator(store.getAssignOp(), leftValue, rightValue);
-		    heap.put(store.getVarName(), result);
-		} else if (store.getPrev() instanceof ARRAY_ACCESS) {
-		    ARRAY_ACCESS arrAccess = (ARRAY_ACCESS) store.getPrev();
-		    int index = getIntValue(arrAccess.getIndex());
-		    Object prevObject = ((Expression) arrAccess.getPrev()).getValue();
-		    result = handleAssignOperator(store.getAssignOp(), arrAccess.getValue(), rightValue);
-		    Array.set(prevObject, index, result);
-		} else if (store.getPrev() instanceof QUALIFIED_ACCESS) {
-		    QUALIFIED_ACCESS qualifiedAccess = (QUALIFIED_ACCESS) store.getPrev();
-		    String memberId = qualifiedAccess.getVarName();
-		    Object prevObject = ((Expression) qualifiedAccess.getPrev()).getValue();
-		    result = handleAssignOperator(store.getAssignOp(), qualifiedAccess.getValue(), rightValue);
-		    try {
-			prevObject.getClass().getField(memberId).set(prevObject, result);
-		    } catch (IllegalArgumentException | IllegalAccessException | NoSuchFieldException | SecurityException e) {
-			e.printStackTrace();
+		    int varSlot = store.getVarSlot();
+		    if (frame.isPending(varSlot)) {
+			if (awaits(running(frame, varSlot), CT))
+			    return null;
+			join(frame, varSlot, compositeService);
+		    }
+		    if (store.getAssignOp() == EAssignOp.ASSIGN) {
+			frame.copy(store, store.getRightExpression());
+		    } else {
+			frame.setInt(store, handleAssignOperator(store.getAssignOp(), frame.getIntVariable(varSlot), getIntValue(store.getRightExpression())));
 		    }
+		    frame.assign(varSlot, store);
+		} else {
+		    frame.set(store, storeMember(store, frame));
 		}
-		store.setValue(result);
 
 		CT = CT.getNext();
 		break;
 	    case LOAD:
-		Load load = (Load) CT;
-		Object valueLoaded = null;
-		if (!heap.containsKey(load.getVarName())) {
-		    if (load.getVarName().equalsIgnoreCase("TimeoutError")) {
-			valueLoaded = new TimeOutError();
-		    } else {
-			throw new RuntimeException("Variable " + load.getVarName() + " not declared.");
-		    }
-		} else {
-		    valueLoaded = heap.get(load.getVarName());
-		}
-		((Expression) CT).setValue(valueLoaded);
+		if (awaits(running(frame, ((Load) CT).getVarSlot()), CT))
+		    return null;
+		load((Load) CT, frame, compositeService);
 		CT = CT.getNext();
 		break;
 	    case ARRAY_ACCESS:
 		ARRAY_ACCESS arrayAccess = (ARRAY_ACCESS) CT;
-		int index = getIntValue(arrayAccess.getIndex());
-		Object prevObject = ((Expression) CT.getPrev()).getValue();
-		Object object2 = null;
-		if (prevObject.getClass().isArray()) {
-		    object2 = Array.get(prevObject, index);
-		}
-		// SAVE in ARRAY_ACCESS
-		if (object2 == null) {
-		    // throw new
-		    // RuntimeException("Index out of range exception! Variable:"
-		    // + object).getName() + " index:" + index);
-		}
-		arrayAccess.setValue(object2);
+		frame.set(arrayAccess, readArray(arrayAccess, frame));
 		// setTemporary(temporary, object2);
 		CT = CT.getNext();
 		break;
 	    case QUALIFIED_ACCESS:
 		QUALIFIED_ACCESS qualifiedAccess = (QUALIFIED_ACCESS) CT;
-		Object object = ((Expression) CT.getPrev()).getValue();
-		Object memberValue = null;
-		if (object.getClass().isArray() && qualifiedAccess.getVarName().equals("length")) {
-		    memberValue = Array.getLength(object);
-		} else {
-		    try {
-			memberValue = object.getClass().getDeclaredField(qualifiedAccess.getVarName()).get(object);
-		    } catch (NoSuchFieldException | SecurityException | IllegalAccessException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return null;
-		    }
+		try {
+		    // SAVE in QUALIFIED_ACCESS
+		    frame.set(qualifiedAccess, readMember(qualifiedAccess, frame));
+		} catch (NoSuchFieldException | SecurityException | IllegalAccessException e) {
+		    // TODO Auto-generated catch block
+		    e.printStackTrace();
+		    return null;
 		}
-
-		// SAVE in QUALIFIED_ACCESS
-		qualifiedAccess.setValue(memberValue);
 		CT = CT.getNext();
 		break;
 	    case CALL:
-		// TODO: CODE to INVOKE
 		CALL call = (CALL) CT;
-		// 1. Create list of parameters
-		// 2. call method of invoke
-		Object[] params = new Object[call.getArguments().size()];
-		for (int k = 0; k < params.length; k++)
-		    params[k] = call.getArguments().get(k).getValue();
-
-		Object resultInvoke;
-		if (call.getServiceName().equalsIgnoreCase("this")) {
-		    resultInvoke = compositeService.invokeLocalOperation(call.getOperationName(), params);
-		} else {
-		    resultInvoke = compositeService.invokeServiceOperation(qosRequirement, call.getServiceName(), call.getOperationName(), params);
+		if (isDeferred(call, compositeService)) {
+		    frame.set(call, invokeDeferred(call, frame, qosRequirement, compositeService));
+		    CT = CT.getNext();
+		    break;
 		}
-
-		if (!compositeService.getConfiguration().ignoreTimeoutError && resultInvoke instanceof TimeOutError)
-		    return resultInvoke;
-		call.setValue(resultInvoke);
+		if (async && !call.getServiceName().equalsIgnoreCase("this")) {
+		    // Continued by resume() when the reply arrives
+		    suspendedCall = call;
+		    reply = invokeAsync(call, frame, qosRequirement, compositeService);
+		    resumeTask = call.getNext();
+		    return null;
+		}
+		assignResult(call, invoke(call, frame, qosRequirement, compositeService), frame, compositeService);
 		CT = CT.getNext();
 		break;
 
 	    case PARALLEL:
-		PARALLEL parallel = (PARALLEL) CT;
-		List<TaskGraph> tasks = parallel.getStatements();
-		ExecutorService threadpool = Executors.newCachedThreadPool();
-		Future[] futureList = new FutureTask[tasks.size()];
-
+		// Branches see the results of all calls made before them
+		if (awaits(running(frame), CT))
+		    return null;
+		joinAll(frame, compositeService);
+		List<TaskGraph> tasks = ((PARALLEL) CT).getStatements();
+		ParallelScheduler.Branch[] branches = new ParallelScheduler.Branch[tasks.size()];
 		for (int i = 0; i < tasks.size(); i++) {
 		    final TaskGraph task = tasks.get(i);
-
-		    futureList[i] = threadpool.submit(new Runnable() {
+		    branches[i] = new ParallelScheduler.Branch() {
 			@Override
-			public void run() {
+			public void run(ExecutionFrame branchFrame, ParallelScheduler.Group branchGroup) {
 			    TaskGraphInterpreter interpreter = new TaskGraphInterpreter();
-			    interpreter.heap = heap;
+			    interpreter.frame = branchFrame;
+			    interpreter.group = branchGroup;
+			    interpreter.qosRequirement = qosRequirement;
 			    interpreter.compositeService = compositeService;
-			    interpreter.interpret(task, qosRequirement, compositeService, args);
+			    interpreter.execute(task, args);
 			}
-		    });
-		}
-
-		for (Future future : futureList) {
-		    try {
-			future.get();
-		    } catch (InterruptedException | ExecutionException e) {
-			e.printStackTrace();
-		    }
+		    };
 		}
-		threadpool.shutdown();
+		ParallelScheduler.getInstance().run(frame, group, branches, compositeService.getConfiguration().virtualThreads);
 
 		CT = CT.getNext();
 		break;
@@ -440,50 +540,71 @@ public class TaskGraphInterpreter {
 	    }
 	}
 
+	// The result may need a deferred call
+	if (awaits(running(frame), CT))
+	    return null;
 	TaskGraph last = CT.getPrev();
 	if (last != null && last instanceof Expression) {
-	    return ((Expression) last).getValue();
+	    return frame.get(last);
 	}
 
 	return null;
 
     }
 
-    private Object handleAssignOperator(EAssignOp op, Object leftValue, Object rightValue) {
-	Object result;
+    /**
+     * In async mode, suspend until a running deferred call completes, to execute a task again
+     * then, see {@link #interpretAsync}
+     * 
+     * @param running the future call result, null if no call is running
+     * @return true if suspended
+     */
+    private boolean awaits(CompletableFuture<Object> running, TaskGraph task) {
+	if (!async || running == null)
+	    return false;
+	reply = running;
+	resumeTask = task;
+	return true;
+    }
+
+    static Object handleAssignOperator(EAssignOp op, Object leftValue, Object rightValue) {
+	if (op == EAssignOp.ASSIGN)
+	    return rightValue;
+	return handleAssignOperator(op, getIntValue(leftValue), getIntValue(rightValue));
+    }
+
+    static int handleAssignOperator(EAssignOp op, int leftValue, int rightValue) {
+	int result;
 	switch (op) {
 	case MULT_ASSIGN:
-	    result = getIntValue(leftValue) * getIntValue(rightValue);
+	    result = leftValue * rightValue;
 	    break;
 	case DIVIDE_ASSIGN:
-	    result = getIntValue(leftValue) / getIntValue(rightValue);
+	    result = leftValue / rightValue;
 	    break;
 	case REMAINDER_ASSIGN:
-	    result = getIntValue(leftValue) % getIntValue(rightValue);
+	    result = leftValue % rightValue;
 	    break;
 	case PLUS_ASSIGN:
-	    result = getIntValue(leftValue) + getIntValue(rightValue);
+	    result = leftValue + rightValue;
 	    break;
 	case MINUS_ASSIGN:
-	    result = getIntValue(leftValue) - getIntValue(rightValue);
+	    result = leftValue - rightValue;
 	    break;
 	case LEFT_SHIFT_ASSIGN:
-	    result = getIntValue(leftValue) << getIntValue(rightValue);
+	    result = leftValue << rightValue;
 	    break;
 	case RIGHT_SHIFT_ASSIGN:
-	    result = getIntValue(leftValue) >> getIntValue(rightValue);
+	    result = leftValue >> rightValue;
 	    break;
 	case BITWISE_AND_ASSIGN:
-	    result = getIntValue(leftValue) & getIntValue(rightValue);
+	    result = leftValue & rightValue;
 	    break;
 	case BITWISE_XOR_ASSIGN:
-	    result = getIntValue(leftValue) ^ getIntValue(rightValue);
+	    result = leftValue ^ rightValue;
 	    break;
 	case BITWISE_OR_ASSIGN:
-	    result = getIntValue(leftValue) | getIntValue(rightValue);
-	    break;
-	case ASSIGN:
-	    result = rightValue;
+	    result = leftValue | rightValue;
 	    break;
 	default:
 	    throw new RuntimeException("Assignment operator is not handled:" + op.toString());
@@ -491,6 +612,200 @@ public class TaskGraphInterpreter {
 	return result;
     }
 
+    /*
+     * Task semantics shared with the TaskGraphCompiler
+     */
+
+    static boolean isEqual(ExecutionFrame frame, TaskGraph left, TaskGraph right) {
+	// Unboxed operands can not be a TimeOutError
+	if (frame.isPrimitive(left) && frame.isPrimitive(right))
+	    return frame.getInt(left) == frame.getInt(right);
+	Object leftValue = frame.get(left);
+	Object rightValue = frame.get(right);
+	if (leftValue instanceof TimeOutError && rightValue instanceof TimeOutError)
+	    return true;
+	else if (leftValue instanceof TimeOutError || rightValue instanceof TimeOutError)
+	    return false;
+	else
+	    return getIntValue(leftValue) == getIntValue(rightValue);
+    }
+
+    static void load(Load load, ExecutionFrame frame, CompositeService compositeService) {
+	int loadSlot = load.getVarSlot();
+	if (loadSlot >= 0 && frame.isPending(loadSlot))
+	    join(frame, loadSlot, compositeService);
+	if (loadSlot < 0) {
+	    // Resolved as the TimeoutError constant
+	    frame.set(load, new TimeOutError());
+	} else if (!frame.isAssigned(loadSlot)) {
+	    throw new RuntimeException("Variable " + load.getVarName() + " not declared.");
+	} else {
+	    frame.load(load, loadSlot);
+	}
+    }
+
+    /**
+     * Assign to an array element or an object member
+     * 
+     * @return the assigned value
+     */
+    static Object storeMember(Store store, ExecutionFrame frame) {
+	Object rightValue = frame.get(store.getRightExpression());
+	Object result = null;
+	if (store.getPrev() instanceof ARRAY_ACCESS) {
+	    ARRAY_ACCESS arrAccess = (ARRAY_ACCESS) store.getPrev();
+	    int index = frame.getInt(arrAccess.getIndex());
+	    Object prevObject = frame.get(arrAccess.getPrev());
+	    result = handleAssignOperator(store.getAssignOp(), frame.get(arrAccess), rightValue);
+	    Array.set(prevObject, index, result);
+	} else if (store.getPrev() instanceof QUALIFIED_ACCESS) {
+	    QUALIFIED_ACCESS qualifiedAccess = (QUALIFIED_ACCESS) store.getPrev();
+	    String memberId = qualifiedAccess.getVarName();
+	    Object prevObject = frame.get(qualifiedAccess.getPrev());
+	    result = handleAssignOperator(store.getAssignOp(), frame.get(qualifiedAccess), rightValue);
+	    try {
+		prevObject.getClass().getField(memberId).set(prevObject, result);
+	    } catch (IllegalArgumentException | IllegalAccessException | NoSuchFieldException | SecurityException e) {
+		e.printStackTrace();
+	    }
+	}
+	return result;
+    }
+
+    static Object readArray(ARRAY_ACCESS arrayAccess, ExecutionFrame frame) {
+	int index = frame.getInt(arrayAccess.getIndex());
+	Object prevObject = frame.get(arrayAccess.getPrev());
+	Object object2 = null;
+	if (prevObject.getClass().isArray()) {
+	    object2 = Array.get(prevObject, index);
+	}
+	// SAVE in ARRAY_ACCESS
+	if (object2 == null) {
+	    // throw new
+	    // RuntimeException("Index out of range exception! Variable:"
+	    // + object).getName() + " index:" + index);
+	}
+	return object2;
+    }
+
+    static Object readMember(QUALIFIED_ACCESS qualifiedAccess, ExecutionFrame frame) throws NoSuchFieldException, IllegalAccessException {
+	Object object = frame.get(qualifiedAccess.getPrev());
+	if (object.getClass().isArray() && qualifiedAccess.getVarName().equals("length")) {
+	    return Array.getLength(object);
+	}
+	return object.getClass().getDeclaredField(qualifiedAccess.getVarName()).get(object);
+    }
+
+    /**
+     * Invoke the service or local operation of a call task
+     * 
+     * @return the operation result, a TimeOutError if the service did not respond
+     */
+    static Object invoke(CALL call, ExecutionFrame frame, String qosRequirement, CompositeService compositeService) {
+	Object[] params = arguments(call, frame);
+	if (call.getServiceName().equalsIgnoreCase("this")) {
+	    return compositeService.invokeLocalOperation(call.getOperationName(), params);
+	} else {
+	    return compositeService.invokeServiceOperation(qosRequirement, call.getServiceName(), call.getOperationName(), params);
+	}
+    }
+
+    /**
+     * Invoke the service operation of a call task without waiting for the reply
+     * 
+     * @return the future operation result
+     */
+    static CompletableFuture<Object> invokeAsync(CALL call, ExecutionFrame frame, String qosRequirement, CompositeService compositeService) {
+	return compositeService.invokeServiceOperationAsync(qosRequirement, call.getServiceName(), call.getOperationName(), arguments(call, frame));
+    }
+
+    /**
+     * Assign the result of a call task
+     * 
+     * @throws WorkflowAbortedException if the call timed out and timeout errors are not ignored
+     */
+    static void assignResult(CALL call, Object result, ExecutionFrame frame, CompositeService compositeService) {
+	if (!compositeService.getConfiguration().ignoreTimeoutError && result instanceof TimeOutError)
+	    throw new WorkflowAbortedException(result);
+	frame.set(call, result);
+    }
+
+    private static Object[] arguments(CALL call, ExecutionFrame frame) {
+	// 1. Create list of parameters
+	// 2. call method of invoke
+	Object[] params = new Object[call.getArguments().size()];
+	for (int k = 0; k < params.length; k++)
+	    params[k] = frame.get(call.getArguments().get(k));
+	return params;
+    }
+
+    /**
+     * Check whether a call is issued without waiting for its result, see {@link TaskGraphDataflow}
+     */
+    static boolean isDeferred(CALL call, CompositeService compositeService) {
+	return call.isDeferrable() && compositeService.getConfiguration().dataflowCalls;
+    }
+
+    /**
+     * Issue a deferrable service call
+     * 
+     * @return the placeholder to assign to the call's variable
+     */
+    static PendingCall invokeDeferred(CALL call, ExecutionFrame frame, String qosRequirement, CompositeService compositeService) {
+	return new PendingCall(invokeAsync(call, frame, qosRequirement, compositeService));
+    }
+
+    /**
+     * Wait for the deferred call held by a variable and assign its result
+     * 
+     * @throws WorkflowAbortedException if the call timed out and timeout errors are not ignored
+     */
+    static void join(ExecutionFrame frame, int slot, CompositeService compositeService) {
+	Object pending = frame.getVariable(slot);
+	if (pending instanceof PendingCall) {
+	    Object result = ((PendingCall) pending).join();
+	    frame.setVariable(slot, result);
+	    if (!compositeService.getConfiguration().ignoreTimeoutError && result instanceof TimeOutError)
+		throw new WorkflowAbortedException(result);
+	}
+    }
+
+    /**
+     * Return the deferred call a variable holds if it is still running
+     * 
+     * @return the future call result, null if the variable holds none or it has completed
+     */
+    static CompletableFuture<Object> running(ExecutionFrame frame, int slot) {
+	if (slot < 0 || !frame.isPending(slot))
+	    return null;
+	CompletableFuture<Object> result = ((PendingCall) frame.getVariable(slot)).getResult();
+	return result.isDone() ? null : result;
+    }
+
+    /**
+     * Return a deferred call of an invocation that is still running
+     * 
+     * @return the future call result, null if none is running
+     */
+    static CompletableFuture<Object> running(ExecutionFrame frame) {
+	for (int slot = 0; slot < frame.getLayout().getVariableCount(); slot++) {
+	    CompletableFuture<Object> result = running(frame, slot);
+	    if (result != null)
+		return result;
+	}
+	return null;
+    }
+
+    /**
+     * Wait for all deferred calls of an invocation, in variable order
+     */
+    static void joinAll(ExecutionFrame frame, CompositeService compositeService) {
+	for (int slot = 0; slot < frame.getLayout().getVariableCount(); slot++) {
+	    if (frame.isPending(slot))
+		join(frame, slot, compositeService);
+	}
+    }
+
     // private void setTemporary(boolean temporary, Object valueLoaded) {
     // // not needed for local variables to put in temporaryVars
     // if (valueLoaded instanceof UppaalType) {
@@ -504,21 +819,8 @@ public class TaskGraphInterpreter {
     // }
     // }
 
-    public static int getIntValue(TaskGraph task) {
-	Expression exp = (Expression) task;
-	Object value = exp.getValue();
-	// if value not initialized
-	if (value == null) {
-	    return 0;
-	}
-
-	if (value instanceof Integer) {
-	    return (Integer) value;
-	}
-	if (value instanceof Boolean) {
-	    return ((Boolean) value) == true ? 1 : 0;
-	}
-	return Integer.parseInt((String) value);
+    private int getIntValue(TaskGraph task) {
+	return frame.getInt(task);
     }
 
     public static int getIntValue(Object value) {
@@ -537,9 +839,11 @@ public class TaskGraphInterpreter {
 	return Integer.parseInt((String) value);
     }
 
-    public static boolean getBooleanValue(TaskGraph task) {
-	Expression exp = (Expression) task;
-	Object value = exp.getValue();
+    private boolean getBooleanValue(TaskGraph task) {
+	return frame.getBoolean(task);
+    }
+
+    public static boolean getBooleanValue(Object value) {
 
 	// if value not initialized
 	// if (value == null) {
@@ -549,10 +853,10 @@ public class TaskGraphInterpreter {
 	int result = 0;
 
 	if (value instanceof Integer) {
-	    result = (int) exp.getValue();
+	    result = (int) value;
 	}
 	if (value instanceof Boolean) {
-	    return (boolean) exp.getValue();
+	    return (boolean) value;
 	}
 	return result == 0 ? false : true;
     }
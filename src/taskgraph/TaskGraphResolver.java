@@ -0,0 +1,157 @@
+package taskgraph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import taskgraph.TaskGraph.ARRAY_ACCESS;
+import taskgraph.TaskGraph.BinaryOp;
+import taskgraph.TaskGraph.CALL;
+import taskgraph.TaskGraph.ETaskType;
+import taskgraph.TaskGraph.EValueType;
+import taskgraph.TaskGraph.Expression;
+import taskgraph.TaskGraph.IF;
+import taskgraph.TaskGraph.Literal;
+import taskgraph.TaskGraph.Load;
+import taskgraph.TaskGraph.PARALLEL;
+import taskgraph.TaskGraph.PARAM;
+import taskgraph.TaskGraph.START;
+import taskgraph.TaskGraph.Store;
+
+/**
+ * Prepares a task graph for execution. Every non-constant expression gets a slot
+ * for its value and every variable a slot of its own in the {@link ExecutionFrame}
+ * of an invocation, so that no names are looked up while running.
+ */
+public class TaskGraphResolver {
+
+    /**
+     * Name that reads as a fresh TimeOutError unless the workflow assigns a variable with that name
+     */
+    public static final String TIMEOUT_ERROR = "TimeoutError";
+
+    /**
+     * Resolve a task graph. Resolving an already resolved graph only returns its layout.
+     * @param first the first task, usually START
+     * @return the layout of a frame for this graph
+     * @throws UndeclaredVariableException if the graph reads a variable that is never assigned
+     */
+    public static FrameLayout resolve(TaskGraph first) {
+	synchronized (first) {
+	    if (first instanceof START && ((START) first).getLayout() != null) {
+		return ((START) first).getLayout();
+	    }
+
+	    List<TaskGraph> nodes = nodes(first);
+
+	    // Expression values
+	    int size = 0;
+	    for (TaskGraph node : nodes) {
+		if (node instanceof Expression && !(node instanceof Literal)) {
+		    size = Math.max(size, ((Expression) node).getSlot() + 1);
+		}
+	    }
+	    for (TaskGraph node : nodes) {
+		if (node instanceof Expression && !(node instanceof Literal) && ((Expression) node).getSlot() < 0) {
+		    ((Expression) node).setSlot(size++);
+		}
+	    }
+
+	    // Variables are declared by being a parameter or being assigned
+	    Map<String, Integer> variables = new LinkedHashMap<String, Integer>();
+	    for (TaskGraph node : nodes) {
+		String name = null;
+		if (node instanceof PARAM) {
+		    name = ((PARAM) node).getName();
+		} else if (node instanceof Store) {
+		    name = ((Store) node).getVarName();
+		}
+		if (name != null && !variables.containsKey(name)) {
+		    variables.put(name, variables.size());
+		}
+	    }
+
+	    Set<String> undeclared = new TreeSet<String>();
+	    for (TaskGraph node : nodes) {
+		if (node instanceof PARAM) {
+		    ((PARAM) node).setVarSlot(variables.get(((PARAM) node).getName()));
+		} else if (node instanceof Store && ((Store) node).getVarName() != null) {
+		    ((Store) node).setVarSlot(variables.get(((Store) node).getVarName()));
+		} else if (node.getTaskType() == ETaskType.LOAD) {
+		    Load load = (Load) node;
+		    Integer slot = variables.get(load.getVarName());
+		    if (slot != null) {
+			load.setVarSlot(slot);
+		    } else if (!load.getVarName().equalsIgnoreCase(TIMEOUT_ERROR)) {
+			undeclared.add(load.getVarName());
+		    }
+		}
+	    }
+	    if (!undeclared.isEmpty()) {
+		throw new UndeclaredVariableException(undeclared);
+	    }
+
+	    EValueType[] variableTypes = TaskGraphTypes.infer(nodes, variables.size());
+	    TaskGraphDataflow.analyze(nodes);
+
+	    FrameLayout layout = new FrameLayout(size, variables.keySet().toArray(new String[variables.size()]), variableTypes);
+	    if (first instanceof START) {
+		((START) first).setLayout(layout);
+	    }
+	    return layout;
+	}
+    }
+
+    /**
+     * Return every task reachable from the first one, in discovery order
+     * @param first the first task
+     * @return the reachable tasks
+     */
+    public static List<TaskGraph> nodes(TaskGraph first) {
+	Set<TaskGraph> visited = Collections.newSetFromMap(new IdentityHashMap<TaskGraph, Boolean>());
+	List<TaskGraph> nodes = new ArrayList<TaskGraph>();
+	Deque<TaskGraph> pending = new ArrayDeque<TaskGraph>();
+	pending.push(first);
+
+	while (!pending.isEmpty()) {
+	    TaskGraph task = pending.pop();
+	    if (!visited.add(task)) {
+		continue;
+	    }
+	    nodes.add(task);
+
+	    List<TaskGraph> successors = new ArrayList<TaskGraph>();
+	    successors.add(task.getNext());
+	    successors.add(task.getPrev());
+	    if (task instanceof IF) {
+		successors.add(((IF) task).getTrue());
+		successors.add(((IF) task).getFalse());
+	    } else if (task instanceof BinaryOp) {
+		successors.add(((BinaryOp) task).getLeft());
+		successors.add(((BinaryOp) task).getRight());
+	    } else if (task instanceof Store) {
+		successors.add(((Store) task).getRightExpression());
+	    } else if (task instanceof ARRAY_ACCESS) {
+		successors.add(((ARRAY_ACCESS) task).getIndex());
+	    } else if (task instanceof CALL) {
+		successors.addAll(((CALL) task).getArguments());
+	    } else if (task instanceof PARALLEL) {
+		successors.addAll(((PARALLEL) task).getStatements());
+	    }
+
+	    // Push in reverse so that the main path is discovered first
+	    for (int i = successors.size() - 1; i >= 0; i--) {
+		if (successors.get(i) != null)
+		    pending.push(successors.get(i));
+	    }
+	}
+	return nodes;
+    }
+}
@@ -0,0 +1,161 @@
+package taskgraph;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import taskgraph.TaskGraph.BinaryOp;
+import taskgraph.TaskGraph.EAssignOp;
+import taskgraph.TaskGraph.ETaskType;
+import taskgraph.TaskGraph.EValueType;
+import taskgraph.TaskGraph.Expression;
+import taskgraph.TaskGraph.Literal;
+import taskgraph.TaskGraph.Load;
+import taskgraph.TaskGraph.PARAM;
+import taskgraph.TaskGraph.Store;
+import taskgraph.TaskGraph.TernaryOp;
+import taskgraph.TaskGraph.UnaryOp;
+
+/**
+ * Infers which expressions and variables of a task graph only ever hold int or boolean values.
+ *
+ * Operators always produce an Integer or a Boolean, whatever their operands are, so their
+ * type is known up front. Variables get the common type of everything assigned to them;
+ * parameters and service results stay OBJECT.
+ */
+public class TaskGraphTypes {
+
+    /**
+     * Set the value type of every expression
+     * @param nodes the task graph nodes, see {@link TaskGraphResolver#nodes(TaskGraph)}
+     * @param variableCount the number of variable slots, already assigned
+     * @return the type of each variable slot
+     */
+    public static EValueType[] infer(List<TaskGraph> nodes, int variableCount) {
+	// null means nothing seen yet
+	EValueType[] variables = new EValueType[variableCount];
+	Map<Expression, EValueType> types = new IdentityHashMap<Expression, EValueType>();
+
+	for (TaskGraph node : nodes) {
+	    if (node instanceof PARAM) {
+		variables[((PARAM) node).getVarSlot()] = EValueType.OBJECT;
+	    }
+	}
+
+	// Variable types feed back into loads, so iterate until nothing widens any more
+	boolean changed = true;
+	while (changed) {
+	    changed = false;
+	    for (TaskGraph node : nodes) {
+		if (!(node instanceof Expression) || node instanceof Literal) {
+		    continue;
+		}
+		Expression exp = (Expression) node;
+		EValueType type = join(types.get(exp), typeOf(exp, types, variables));
+		if (type != types.get(exp)) {
+		    types.put(exp, type);
+		    changed = true;
+		}
+		if (exp instanceof Store && ((Store) exp).getVarName() != null && type != null) {
+		    int slot = ((Store) exp).getVarSlot();
+		    EValueType varType = join(variables[slot], type);
+		    if (varType != variables[slot]) {
+			variables[slot] = varType;
+			changed = true;
+		    }
+		}
+	    }
+	}
+
+	for (TaskGraph node : nodes) {
+	    if (node instanceof Expression && !(node instanceof Literal)) {
+		EValueType type = types.get(node);
+		((Expression) node).setValueType(type != null ? type : EValueType.OBJECT);
+	    }
+	}
+	for (int i = 0; i < variables.length; i++) {
+	    if (variables[i] == null)
+		variables[i] = EValueType.OBJECT;
+	}
+	return variables;
+    }
+
+    private static EValueType typeOf(Expression exp, Map<Expression, EValueType> types, EValueType[] variables) {
+	switch (exp.getTaskType()) {
+	case IF:
+	    return EValueType.BOOLEAN;
+	case TERNARY_OP:
+	    TernaryOp ternaryOp = (TernaryOp) exp;
+	    EValueType trueType = operandType(ternaryOp.getTrue(), types);
+	    EValueType falseType = operandType(ternaryOp.getFalse(), types);
+	    return trueType == null || falseType == null ? null : join(trueType, falseType);
+	case UNARY_OP:
+	    switch (((UnaryOp) exp).getUnaryOp()) {
+	    case NOT:
+		return EValueType.BOOLEAN;
+	    case PLUS:
+	    case MINUS:
+		return EValueType.INT;
+	    default:
+		// Increment and decrement only work on variables
+		return exp.getPrev().getTaskType() == ETaskType.LOAD ? EValueType.INT : EValueType.OBJECT;
+	    }
+	case BINARY_OP:
+	    switch (((BinaryOp) exp).getBinaryOp()) {
+	    case LOGIC_OR:
+	    case IMPLY:
+	    case LOGIC_AND:
+	    case BITWISE_EXCL_OR:
+	    case EQUAL:
+	    case NOT_EQUAL:
+	    case LT:
+	    case GT:
+	    case LT_EQUAL:
+	    case GT_EQUAL:
+		return EValueType.BOOLEAN;
+	    case BITWISE_INCL_OR:
+	    case BITWISE_AND:
+	    case MIN:
+	    case MAX:
+	    case LEFT_SHIFT:
+	    case RIGHT_SHIFT:
+	    case PLUS:
+	    case MINUS:
+	    case MULT:
+	    case DIVISION:
+	    case REMAINDER:
+		return EValueType.INT;
+	    default:
+		return EValueType.OBJECT;
+	    }
+	case STORE:
+	    Store store = (Store) exp;
+	    if (store.getAssignOp() != EAssignOp.ASSIGN)
+		return EValueType.INT;
+	    return operandType(store.getRightExpression(), types);
+	case LOAD:
+	    int slot = ((Load) exp).getVarSlot();
+	    return slot < 0 ? EValueType.OBJECT : variables[slot];
+	default:
+	    return EValueType.OBJECT;
+	}
+    }
+
+    private static EValueType operandType(TaskGraph operand, Map<Expression, EValueType> types) {
+	if (operand instanceof Literal) {
+	    return ((Literal) operand).getValue() instanceof Integer ? EValueType.INT : EValueType.OBJECT;
+	}
+	if (operand instanceof Expression) {
+	    return types.get(operand);
+	}
+	return EValueType.OBJECT;
+    }
+
+    private static EValueType join(EValueType a, EValueType b) {
+	if (a == null)
+	    return b;
+	if (b == null || a == b)
+	    return a;
+	return EValueType.OBJECT;
+    }
+}
@@ -0,0 +1,30 @@
+package taskgraph;
+
+import java.util.Collection;
+
+/**
+ * Thrown when a task graph reads variables that are neither parameters nor assigned anywhere
+ */
+public class UndeclaredVariableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Collection<String> variables;
+
+    /**
+     * Constructor
+     * @param variables the undeclared variable names
+     */
+    public UndeclaredVariableException(Collection<String> variables) {
+	super("Variable" + (variables.size() > 1 ? "s " : " ") + String.join(", ", variables) + " not declared.");
+	this.variables = variables;
+    }
+
+    /**
+     * Return the undeclared variable names
+     * @return the variable names
+     */
+    public Collection<String> getVariables() {
+	return variables;
+    }
+}
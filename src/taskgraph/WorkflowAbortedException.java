@@ -0,0 +1,20 @@
+package taskgraph;
+
+/**
+ * Stops a workflow execution with a result, e.g. when a deferred call joined late returns a TimeOutError
+ */
+class WorkflowAbortedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object result;
+
+    WorkflowAbortedException(Object result) {
+	super(null, null, false, false);
+	this.result = result;
+    }
+
+    Object getResult() {
+	return result;
+    }
+}
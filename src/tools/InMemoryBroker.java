@@ -0,0 +1,371 @@
+package tools;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.QueueConnection;
+import javax.jms.QueueConnectionFactory;
+import javax.jms.QueueSession;
+import javax.jms.TextMessage;
+
+import service.provider.activemq.ActiveMQProvider;
+
+/**
+ * 
+ * A JMS broker in memory, to run {@link ActiveMQProvider} without ActiveMQ, e.g. in tests
+ *
+ * Only what the provider uses is supported: queues, text messages, producers,
+ * consumers with a message listener and transacted sessions. Each session calls
+ * its listeners from its own thread, in the order messages arrived. A queue
+ * without consumers keeps its messages until one is added. Other methods throw
+ * an UnsupportedOperationException.
+ */
+public class InMemoryBroker {
+
+	/**
+	 * Messages and consumers of one queue
+	 */
+	private static class Channel {
+		final List<Consumer> consumers = new ArrayList<>();
+		final Queue<String> backlog = new ArrayDeque<>();
+		int next;
+	}
+
+	private static class Consumer {
+		final Session session;
+		final String queueName;
+		volatile MessageListener listener;
+
+		Consumer(Session session, String queueName) {
+			this.session = session;
+			this.queueName = queueName;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
+
+	/**
+	 * Create a connection factory of this broker
+	 * @return the connection factory
+	 */
+	public QueueConnectionFactory createConnectionFactory() {
+		return proxy(QueueConnectionFactory.class, new Handler() {
+			@Override
+			Object handle(String name, Object[] args) {
+				if (name.equals("createQueueConnection") || name.equals("createConnection"))
+					return new Connection().proxy;
+				return unsupported(name);
+			}
+		});
+	}
+
+	/**
+	 * Return the number of messages in a queue without consumers
+	 * @param queueName the queue
+	 * @return the number of messages
+	 */
+	public int getBacklog(String queueName) {
+		Channel channel = getChannel(queueName);
+		synchronized (channel) {
+			return channel.backlog.size();
+		}
+	}
+
+	private Channel getChannel(String queueName) {
+		Channel channel = channels.get(queueName);
+		if (channel == null) {
+			channels.putIfAbsent(queueName, new Channel());
+			channel = channels.get(queueName);
+		}
+		return channel;
+	}
+
+	private void dispatch(String queueName, String text) {
+		Channel channel = getChannel(queueName);
+		Consumer consumer = null;
+		synchronized (channel) {
+			int size = channel.consumers.size();
+			for (int i = 0; i < size && consumer == null; i++) {
+				Consumer candidate = channel.consumers.get(channel.next++ % size);
+				if (candidate.listener != null)
+					consumer = candidate;
+			}
+			if (consumer == null) {
+				channel.backlog.add(text);
+				return;
+			}
+		}
+		consumer.session.deliver(consumer, text);
+	}
+
+	private void listen(Consumer consumer, MessageListener listener) {
+		Channel channel = getChannel(consumer.queueName);
+		List<String> backlog;
+		synchronized (channel) {
+			consumer.listener = listener;
+			if (!channel.consumers.contains(consumer))
+				channel.consumers.add(consumer);
+			backlog = new ArrayList<>(channel.backlog);
+			channel.backlog.clear();
+		}
+		for (String text : backlog)
+			consumer.session.deliver(consumer, text);
+	}
+
+	private void unlisten(Consumer consumer) {
+		Channel channel = getChannel(consumer.queueName);
+		synchronized (channel) {
+			channel.consumers.remove(consumer);
+		}
+	}
+
+	private class Connection {
+		final QueueConnection proxy = proxy(QueueConnection.class, new Handler() {
+			@Override
+			Object handle(String name, Object[] args) {
+				switch (name) {
+				case "createQueueSession":
+				case "createSession":
+					boolean transacted = args != null && args.length == 2 && (Boolean) args[0];
+					return new Session(transacted).proxy;
+				case "start":
+				case "stop":
+				case "close":
+				case "setExceptionListener":
+					return null;
+				default:
+					return unsupported(name);
+				}
+			}
+		});
+	}
+
+	private class Session {
+		final boolean transacted;
+		final List<String[]> uncommitted = new ArrayList<>();
+		final List<Consumer> consumers = new ArrayList<>();
+		ExecutorService listenerThread;
+
+		final QueueSession proxy = proxy(QueueSession.class, new Handler() {
+			@Override
+			Object handle(String name, Object[] args) throws JMSException {
+				switch (name) {
+				case "createQueue":
+					return queue((String) args[0]);
+				case "createProducer":
+				case "createSender":
+					return producer((javax.jms.Queue) args[0]);
+				case "createConsumer":
+				case "createReceiver":
+					return consumer(((javax.jms.Queue) args[0]).getQueueName());
+				case "createTextMessage":
+					return textMessage(args == null ? null : (String) args[0]);
+				case "getTransacted":
+					return transacted;
+				case "commit":
+					commit();
+					return null;
+				case "rollback":
+					synchronized (uncommitted) {
+						uncommitted.clear();
+					}
+					return null;
+				case "close":
+					close();
+					return null;
+				default:
+					return unsupported(name);
+				}
+			}
+		});
+
+		Session(boolean transacted) {
+			this.transacted = transacted;
+		}
+
+		void send(String queueName, String text) {
+			if (transacted) {
+				synchronized (uncommitted) {
+					uncommitted.add(new String[] { queueName, text });
+				}
+			} else {
+				dispatch(queueName, text);
+			}
+		}
+
+		void commit() {
+			List<String[]> messages;
+			synchronized (uncommitted) {
+				messages = new ArrayList<>(uncommitted);
+				uncommitted.clear();
+			}
+			for (String[] message : messages)
+				dispatch(message[0], message[1]);
+		}
+
+		synchronized void deliver(final Consumer consumer, String text) {
+			if (listenerThread == null)
+				return;
+			final TextMessage message = textMessage(text);
+			listenerThread.execute(new Runnable() {
+				@Override
+				public void run() {
+					MessageListener listener = consumer.listener;
+					if (listener != null)
+						listener.onMessage(message);
+				}
+			});
+		}
+
+		synchronized void close() {
+			for (Consumer consumer : consumers)
+				unlisten(consumer);
+			consumers.clear();
+			if (listenerThread != null)
+				listenerThread.shutdown();
+			listenerThread = null;
+		}
+
+		MessageProducer producer(final javax.jms.Queue queue) {
+			return proxy(javax.jms.QueueSender.class, new Handler() {
+				@Override
+				Object handle(String name, Object[] args) throws JMSException {
+					switch (name) {
+					case "send":
+						javax.jms.Queue destination = args[0] instanceof Destination ? (javax.jms.Queue) args[0] : queue;
+						TextMessage message = (TextMessage) (args[0] instanceof Destination ? args[1] : args[0]);
+						send(destination.getQueueName(), message.getText());
+						return null;
+					case "getDestination":
+					case "getQueue":
+						return queue;
+					case "close":
+						return null;
+					default:
+						if (name.startsWith("set"))
+							return null;
+						return unsupported(name);
+					}
+				}
+			});
+		}
+
+		MessageConsumer consumer(String queueName) {
+			final Consumer consumer = new Consumer(this, queueName);
+			synchronized (this) {
+				consumers.add(consumer);
+				if (listenerThread == null) {
+					listenerThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "jms-session");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+				}
+			}
+			return proxy(javax.jms.QueueReceiver.class, new Handler() {
+				@Override
+				Object handle(String name, Object[] args) {
+					switch (name) {
+					case "setMessageListener":
+						listen(consumer, (MessageListener) args[0]);
+						return null;
+					case "getMessageListener":
+						return consumer.listener;
+					case "close":
+						unlisten(consumer);
+						return null;
+					default:
+						return unsupported(name);
+					}
+				}
+			});
+		}
+	}
+
+	private static javax.jms.Queue queue(final String queueName) {
+		return proxy(javax.jms.Queue.class, new Handler() {
+			@Override
+			Object handle(String name, Object[] args) {
+				if (name.equals("getQueueName"))
+					return queueName;
+				return unsupported(name);
+			}
+
+			@Override
+			String describe(Object proxy) {
+				return queueName;
+			}
+		});
+	}
+
+	private static TextMessage textMessage(final String initialText) {
+		return proxy(TextMessage.class, new Handler() {
+			private String text = initialText;
+
+			@Override
+			Object handle(String name, Object[] args) {
+				switch (name) {
+				case "getText":
+					return text;
+				case "setText":
+					text = (String) args[0];
+					return null;
+				default:
+					return unsupported(name);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Implements a JMS interface by the names of its methods
+	 */
+	private static abstract class Handler implements InvocationHandler {
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return describe(proxy);
+			default:
+				return handle(method.getName(), args);
+			}
+		}
+
+		String describe(Object proxy) {
+			return proxy.getClass().getInterfaces()[0].getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+		}
+
+		abstract Object handle(String name, Object[] args) throws JMSException;
+
+		Object unsupported(String name) {
+			throw new UnsupportedOperationException(name + " is not supported by the in-memory broker");
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(InMemoryBroker.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+}
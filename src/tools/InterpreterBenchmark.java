@@ -0,0 +1,84 @@
+package tools;
+
+import java.lang.management.ManagementFactory;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.RecognitionException;
+
+import service.composite.CompositeService;
+import service.workflow.ast.ASTNode.Start;
+import service.workflow.ast.rspLexer;
+import service.workflow.ast.rspParser;
+import taskgraph.CompiledTaskGraph;
+import taskgraph.TaskGraph.START;
+import taskgraph.TaskGraphCompiler;
+import taskgraph.TaskGraphInterpreter;
+import taskgraph.TaskGraphResolver;
+
+/**
+ * Compares the boxed and the unboxed (specialized) evaluation of the task graph interpreter,
+ * and the compiled task graph, on an arithmetic workflow without service calls.
+ * Usage: InterpreterBenchmark [invocations] [loop iterations]
+ *
+ * Each mode is warmed up first, then time and heap allocation per invocation are reported.
+ */
+public class InterpreterBenchmark {
+
+	private static final String WORKFLOW =
+			"start[n]\n"
+			+ "  s = 0\n"
+			+ "  k = 0\n"
+			+ "  for (i = 0; i < n; i++) {\n"
+			+ "    if (i % 3 == 0 && i > k) { s += i * 2 } else { s = s - 1 }\n"
+			+ "    k = i > 10 ? k + 1 : k\n"
+			+ "  }\n"
+			+ "  return s\n";
+
+	public static void main(String[] args) throws RecognitionException {
+		int invocations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+		rspParser parser = new rspParser(new CommonTokenStream(new rspLexer(new ANTLRStringStream(WORKFLOW))));
+		START start = (START) ((Start) parser.start().getTree()).getFirst();
+		TaskGraphResolver.resolve(start);
+		CompositeService service = new CompositeService("InterpreterBenchmark", "InterpreterBenchmark", null);
+
+		CompiledTaskGraph compiled = TaskGraphCompiler.compile(start);
+
+		for (String mode : new String[] { "boxed", "specialized", "compiled" }) {
+			// Warm up
+			run(start, compiled, service, mode, invocations, iterations);
+
+			long allocated = allocatedBytes();
+			long time = System.nanoTime();
+			Object result = run(start, compiled, service, mode, invocations, iterations);
+			time = System.nanoTime() - time;
+			allocated = allocatedBytes() - allocated;
+
+			System.out.printf("%-11s result=%s  %.1f us/invocation  %d bytes/invocation%n",
+					mode, result, time / 1000.0 / invocations, allocated / invocations);
+		}
+	}
+
+	private static Object run(START start, CompiledTaskGraph compiled, CompositeService service, String mode, int invocations, int iterations) {
+		Object result = null;
+		for (int i = 0; i < invocations; i++) {
+			if (mode.equals("compiled")) {
+				result = compiled.execute("", service, iterations);
+			} else {
+				TaskGraphInterpreter interpreter = new TaskGraphInterpreter();
+				interpreter.setSpecialized(mode.equals("specialized"));
+				result = interpreter.interpret(start, "", service, iterations);
+			}
+		}
+		return result;
+	}
+
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+}
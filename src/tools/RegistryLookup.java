@@ -0,0 +1,104 @@
+package tools;
+
+import java.util.List;
+
+import service.atomic.AtomicService;
+import service.auxiliary.ServiceDescription;
+import service.auxiliary.ServiceOperation;
+import service.auxiliary.ServiceRegistryInterface;
+import service.client.AbstractServiceClient;
+import service.provider.RoutingServiceProvider;
+import service.provider.ServiceProvider;
+import service.provider.ServiceProviderFactory;
+import service.registry.ServiceRegistry;
+
+/**
+ * Looks a service up in the registry of another JVM and invokes it, over the transports configured.
+ * Usage: RegistryLookup registry [seconds]
+ *        RegistryLookup lookup [invocations]
+ *
+ * Start the registry, then the lookup in another JVM, both with the same "resep.transport",
+ * e.g. "rsp,shm", or "rsp,tcp" with "resep.tcp.addresses" mapping se.lnu.service.registry
+ * and tools.echo to the address of the registry JVM. The registry JVM also runs the service.
+ */
+public class RegistryLookup {
+
+	private static final String ENDPOINT = "tools.echo";
+
+	public static class EchoService extends AtomicService {
+
+		public EchoService(String serviceName, String serviceEndpoint) {
+			super(serviceName, serviceEndpoint);
+		}
+
+		@ServiceOperation
+		public String echo(String text) {
+			return text;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("Usage: RegistryLookup registry [seconds] | lookup [invocations]");
+			return;
+		}
+		System.out.println("Transports: " + ServiceProviderFactory.getTransport());
+		if (args[0].equals("registry"))
+			serve(args.length > 1 ? Integer.parseInt(args[1]) : 60);
+		else
+			lookup(args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+		System.exit(0);
+	}
+
+	/**
+	 * Run the registry and the echo service, registered in it
+	 * @param seconds how long to serve
+	 */
+	private static void serve(int seconds) throws InterruptedException {
+		ServiceRegistry registry = new ServiceRegistry();
+		registry.startService();
+		EchoService service = new EchoService("EchoService", ENDPOINT);
+		service.startService();
+		service.register();
+		Thread.sleep(seconds * 1000L);
+	}
+
+	/**
+	 * Find the echo service in the registry, then invoke it and print the average time of a call
+	 * @param invocations the number of invocations
+	 */
+	@SuppressWarnings("unchecked")
+	private static void lookup(int invocations) {
+		ServiceProvider provider = ServiceProviderFactory.createServiceProvider();
+		if (provider instanceof RoutingServiceProvider) {
+			RoutingServiceProvider routing = (RoutingServiceProvider) provider;
+			System.out.println("Routes: registry " + routing.getTransport(ServiceRegistryInterface.ADDRESS)
+					+ ", service " + routing.getTransport(ENDPOINT));
+		}
+
+		AbstractServiceClient registry = new AbstractServiceClient(ServiceRegistryInterface.ADDRESS);
+		long time = System.nanoTime();
+		List<ServiceDescription> services = (List<ServiceDescription>) registry.sendRequest("lookup", "EchoService", "echo");
+		time = System.nanoTime() - time;
+		registry.close();
+		if (services == null || services.isEmpty())
+			throw new IllegalStateException("EchoService is not registered");
+		String endpoint = services.get(0).getServiceEndpoint();
+		System.out.printf("Lookup found %d service(s) at %s in %.1f ms%n", services.size(), endpoint, time / 1e6);
+
+		AbstractServiceClient client = new AbstractServiceClient(endpoint);
+		// Warm up
+		for (int i = 0; i < invocations / 10; i++)
+			client.sendRequest("echo", "warm up");
+
+		time = System.nanoTime();
+		for (int i = 0; i < invocations; i++) {
+			String text = Integer.toString(i);
+			if (!text.equals(client.sendRequest("echo", text)))
+				throw new IllegalStateException("Wrong echo of " + text);
+		}
+		time = System.nanoTime() - time;
+		client.close();
+		System.out.printf("%d invocations  %.1f us per call%n", invocations, time / 1e3 / invocations);
+	}
+}
@@ -0,0 +1,107 @@
+package tools;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import service.provider.MessageReceiver;
+import service.provider.ServiceProvider;
+import service.provider.shm.SharedMemoryServiceProvider;
+import service.provider.shm.SharedMemoryTransport;
+
+/**
+ * Measures the round trip of a message between two processes over shared memory.
+ * Usage: SharedMemoryBenchmark server [seconds]
+ *        SharedMemoryBenchmark client [round trips]
+ *
+ * Start the server, then the client in another JVM on the same host. Both use the
+ * default transport, so "resep.shm.dir" must be the same for both. The client sends
+ * one message at a time and waits for its echo before sending the next one.
+ */
+public class SharedMemoryBenchmark {
+
+	private static final String SERVICE = "benchmark.echo";
+	private static final String CLIENT = "benchmark.client";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("Usage: SharedMemoryBenchmark server [seconds] | client [round trips]");
+			return;
+		}
+		if (args[0].equals("server"))
+			serve(args.length > 1 ? Integer.parseInt(args[1]) : 60);
+		else
+			measure(args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+		System.exit(0);
+	}
+
+	/**
+	 * Reply to every message with its text
+	 * @param seconds how long to serve
+	 */
+	private static void serve(int seconds) throws InterruptedException {
+		final ServiceProvider provider = new SharedMemoryServiceProvider();
+		provider.startListening(SERVICE, new MessageReceiver() {
+			@Override
+			public void onMessage(String message) {
+				provider.sendMessage(message, CLIENT);
+			}
+		});
+		System.out.println("Serving " + SERVICE + " in " + SharedMemoryTransport.getInstance().getDirectory());
+		Thread.sleep(seconds * 1000L);
+		provider.stopListening();
+	}
+
+	/**
+	 * Send messages one at a time and print the percentiles of their round trips
+	 * @param roundTrips the number of round trips measured
+	 */
+	private static void measure(int roundTrips) throws InterruptedException {
+		SharedMemoryTransport transport = SharedMemoryTransport.getInstance();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!transport.isListened(SERVICE)) {
+			if (System.currentTimeMillis() > deadline)
+				throw new IllegalStateException("No server listens on " + SERVICE + " in " + transport.getDirectory());
+			Thread.sleep(10);
+		}
+
+		final AtomicReference<String> echo = new AtomicReference<>();
+		ServiceProvider provider = new SharedMemoryServiceProvider();
+		provider.startListening(CLIENT, new MessageReceiver() {
+			@Override
+			public void onMessage(String message) {
+				echo.set(message);
+			}
+		});
+
+		// Warm up
+		roundTrips(provider, echo, new long[roundTrips / 10]);
+
+		long[] times = new long[roundTrips];
+		roundTrips(provider, echo, times);
+		Arrays.sort(times);
+		System.out.printf("%d round trips  median %.1f us  99th percentile %.1f us  max %.1f us%n", roundTrips,
+				times[roundTrips / 2] / 1e3, times[roundTrips * 99 / 100] / 1e3, times[roundTrips - 1] / 1e3);
+		provider.stopListening();
+	}
+
+	/**
+	 * Time round trips, yielding while waiting for each echo, so the listener thread can run
+	 * when the CPUs are few
+	 * @param provider the service provider of the client
+	 * @param echo the last echo received
+	 * @param times the round trip times, in ns
+	 */
+	private static void roundTrips(ServiceProvider provider, AtomicReference<String> echo, long[] times) {
+		for (int i = 0; i < times.length; i++) {
+			String message = Integer.toString(i);
+			long time = System.nanoTime();
+			provider.sendMessage(message, SERVICE);
+			String reply;
+			while ((reply = echo.getAndSet(null)) == null)
+				Thread.yield();
+			times[i] = System.nanoTime() - time;
+			if (!reply.equals(message))
+				throw new IllegalStateException("Expected echo " + message + ", received " + reply);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package tools;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import service.provider.BatchingServiceProvider;
+import service.provider.MessageReceiver;
+import service.provider.ServiceProvider;
+import service.provider.tcp.AddressMap;
+import service.provider.tcp.TCPServiceProvider;
+import service.provider.tcp.TCPTransport;
+
+/**
+ * Measures a loopback fan-out over the TCP transport, with and without batching.
+ * Usage: TcpBenchmark [messages per client] [clients] [message size]
+ *
+ * An echo service and its clients use two transports of this JVM, so every message
+ * crosses a socket both ways. Each client sends its messages from its own thread
+ * and checks that the echoes come back in order. Then one client sends a message
+ * at a time, pausing between them, for the round trip under low load.
+ */
+public class TcpBenchmark {
+
+	private static final String SERVICE = "benchmark.echo";
+	private static final int ROUND_TRIPS = 2000;
+
+	public static void main(String[] args) throws Exception {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int size = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+
+		TCPTransport serviceTransport = new TCPTransport(new InetSocketAddress("127.0.0.1", 0), new AddressMap());
+		AddressMap addresses = new AddressMap();
+		addresses.put(SERVICE, serviceTransport.getAddress());
+		TCPTransport clientTransport = new TCPTransport(new InetSocketAddress("127.0.0.1", 0), addresses);
+
+		char[] padding = new char[size];
+		Arrays.fill(padding, 'x');
+
+		for (boolean batching : new boolean[] { false, true }) {
+			ServiceProvider echo = createServiceProvider(serviceTransport, batching);
+			startEcho(echo);
+
+			// Warm up
+			fanOut(createServiceProviders(clientTransport, batching, clients), messages / 10, padding);
+
+			ServiceProvider[] providers = createServiceProviders(clientTransport, batching, clients);
+			long time = System.nanoTime();
+			int disorder = fanOut(providers, messages, padding);
+			time = System.nanoTime() - time;
+
+			long[] roundTrips = roundTrips(createServiceProvider(clientTransport, batching));
+			echo.stopListening();
+
+			String mode = batching ? "batching" : "plain";
+			System.out.printf("%-8s %d x %d messages in %.0f ms  %.0f messages/s  %d out of order%n",
+					mode, clients, messages, time / 1e6, clients * messages / (time / 1e9), disorder);
+			if (batching)
+				System.out.printf("%-8s %.1f requests and %.1f echoes per envelope%n", "",
+						((BatchingServiceProvider) providers[0]).getAverageBatchSize(),
+						((BatchingServiceProvider) echo).getAverageBatchSize());
+			System.out.printf("%-8s low load round trip  median %d us  99th percentile %d us%n", "",
+					roundTrips[ROUND_TRIPS / 2] / 1000, roundTrips[ROUND_TRIPS * 99 / 100] / 1000);
+		}
+		System.exit(0);
+	}
+
+	private static ServiceProvider createServiceProvider(TCPTransport transport, boolean batching) {
+		ServiceProvider provider = new TCPServiceProvider(transport);
+		return batching ? new BatchingServiceProvider(provider) : provider;
+	}
+
+	private static ServiceProvider[] createServiceProviders(TCPTransport transport, boolean batching, int count) {
+		ServiceProvider[] providers = new ServiceProvider[count];
+		for (int i = 0; i < count; i++)
+			providers[i] = createServiceProvider(transport, batching);
+		return providers;
+	}
+
+	/**
+	 * Start a service replying with the text after the first '|' to the endpoint before it
+	 * @param provider the service provider of the service
+	 */
+	private static void startEcho(final ServiceProvider provider) {
+		provider.startListening(SERVICE, new MessageReceiver() {
+			@Override
+			public void onMessage(String message) {
+				int separator = message.indexOf('|');
+				provider.sendMessage(message.substring(separator + 1), message.substring(0, separator));
+			}
+		});
+	}
+
+	/**
+	 * Send numbered messages from every client at once and wait for all echoes
+	 * @param providers the service providers of the clients
+	 * @param messages the number of messages per client
+	 * @param padding the text following the number in each message
+	 * @return the number of echoes out of order
+	 */
+	private static int fanOut(ServiceProvider[] providers, final int messages, char[] padding) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(messages * providers.length);
+		final AtomicInteger disorder = new AtomicInteger();
+		for (int c = 0; c < providers.length; c++) {
+			providers[c].startListening("benchmark.client." + c, new MessageReceiver() {
+				private int last = -1;
+
+				@Override
+				public void onMessage(String message) {
+					int value = Integer.parseInt(message.substring(0, message.indexOf(' ')));
+					if (value != last + 1)
+						disorder.incrementAndGet();
+					last = value;
+					done.countDown();
+				}
+			});
+		}
+		final String suffix = " " + new String(padding);
+		for (int c = 0; c < providers.length; c++) {
+			final ServiceProvider provider = providers[c];
+			final String prefix = "benchmark.client." + c + "|";
+			new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < messages; i++)
+						provider.sendMessage(prefix + i + suffix, SERVICE);
+				}
+			}.start();
+		}
+		if (!done.await(5, TimeUnit.MINUTES))
+			throw new IllegalStateException(done.getCount() + " echoes did not arrive");
+		for (ServiceProvider provider : providers)
+			provider.stopListening();
+		return disorder.get();
+	}
+
+	/**
+	 * Time round trips of messages sent one at a time, 1 ms apart
+	 * @param provider the service provider of the client
+	 * @return the sorted round trip times, in ns
+	 */
+	private static long[] roundTrips(ServiceProvider provider) throws InterruptedException {
+		final SynchronousQueue<String> echoes = new SynchronousQueue<>();
+		provider.startListening("benchmark.client.rtt", new MessageReceiver() {
+			@Override
+			public void onMessage(String message) {
+				try {
+					echoes.put(message);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		long[] times = new long[ROUND_TRIPS];
+		for (int i = 0; i < times.length; i++) {
+			Thread.sleep(1);
+			long time = System.nanoTime();
+			provider.sendMessage("benchmark.client.rtt|" + i, SERVICE);
+			if (echoes.poll(10, TimeUnit.SECONDS) == null)
+				throw new IllegalStateException("No echo of round trip " + i);
+			times[i] = System.nanoTime() - time;
+		}
+		provider.stopListening();
+		Arrays.sort(times);
+		return times;
+	}
+}
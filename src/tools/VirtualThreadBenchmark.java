@@ -0,0 +1,96 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import service.atomic.AtomicService;
+import service.auxiliary.AtomicServiceConfiguration;
+import service.auxiliary.ServiceOperation;
+import service.client.AbstractServiceClient;
+import service.provider.rsp.RSPMessagingService;
+import service.utility.VirtualThreads;
+
+/**
+ * Compares the throughput of an atomic service with a blocking operation
+ * on a fixed thread pool and on virtual threads.
+ * Usage: VirtualThreadBenchmark [requests] [operation delay in ms]
+ *
+ * All requests are sent at once. The pooled service handles as many of them at a time
+ * as it has threads, the virtual one all of them. Without virtual threads in the JVM
+ * both fall back to the pool.
+ */
+public class VirtualThreadBenchmark {
+
+	@AtomicServiceConfiguration(MultipeThreads = true, MaxNoOfThreads = 8)
+	public static class PooledService extends AtomicService {
+
+		public PooledService(String serviceName, String serviceEndpoint) {
+			super(serviceName, serviceEndpoint);
+		}
+
+		@ServiceOperation
+		public int work(int delay) {
+			return block(delay);
+		}
+	}
+
+	@AtomicServiceConfiguration(MultipeThreads = true, MaxNoOfThreads = 8, VirtualThreads = true)
+	public static class VirtualService extends AtomicService {
+
+		public VirtualService(String serviceName, String serviceEndpoint) {
+			super(serviceName, serviceEndpoint);
+		}
+
+		@ServiceOperation
+		public int work(int delay) {
+			return block(delay);
+		}
+	}
+
+	private static int block(int delay) {
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return delay;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int delay = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		if (!VirtualThreads.isAvailable())
+			System.out.println("This JVM has no virtual threads, both services use a thread pool");
+
+		AtomicService pooled = new PooledService("PooledService", "benchmark.pooled");
+		pooled.startService();
+		AtomicService virtual = new VirtualService("VirtualService", "benchmark.virtual");
+		virtual.startService();
+
+		for (boolean virtualThreads : new boolean[] { false, true }) {
+			RSPMessagingService.getInstance().setVirtualThreads(virtualThreads);
+			AbstractServiceClient client = new AbstractServiceClient(virtualThreads ? "benchmark.virtual" : "benchmark.pooled");
+			String mode = virtualThreads ? "virtual" : "pooled";
+
+			// Warm up
+			run(client, requests / 10, delay);
+
+			long time = System.nanoTime();
+			run(client, requests, delay);
+			time = System.nanoTime() - time;
+
+			System.out.printf("%-8s %d requests in %.0f ms  %.0f requests/s%n",
+					mode, requests, time / 1e6, requests / (time / 1e9));
+		}
+		System.exit(0);
+	}
+
+	private static void run(AbstractServiceClient client, int requests, int delay) {
+		List<CompletableFuture<Object>> results = new ArrayList<>();
+		for (int i = 0; i < requests; i++)
+			results.add(client.sendRequestAsync("work", delay));
+		CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+	}
+}